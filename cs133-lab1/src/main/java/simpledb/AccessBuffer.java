@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy buffer of page hits waiting to be reported to the
+ * EvictionPolicy.
+ * <p>
+ * Replacement policies keep ordered bookkeeping that is not safe to update
+ * from many threads at once.  Rather than taking the pool-wide eviction lock
+ * on every buffer pool hit, the hit path appends the page id to one of
+ * several small ring buffers, picked by the calling thread, and the buffers
+ * are drained into the policy by whoever holds the eviction lock.  If a
+ * stripe is full the hit is simply dropped; a replacement policy only needs
+ * a good sample of the accesses, not every single one.
+ */
+class AccessBuffer {
+
+    private static final int SLOTS = 64;   // per stripe, power of two
+    private static final int MASK = SLOTS - 1;
+
+    private static final class Stripe {
+        final AtomicLong head = new AtomicLong();   // only moved by the drainer
+        final AtomicLong tail = new AtomicLong();
+        final AtomicReferenceArray<PageId> slots = new AtomicReferenceArray<>(SLOTS);
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    AccessBuffer() {
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+        stripes = new Stripe[Math.max(1, n)];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+        stripeMask = stripes.length - 1;
+    }
+
+    /**
+     * Record a hit on pid.
+     *
+     * @return false if the hit was dropped because its stripe is full, which
+     *         is a hint that the buffer should be drained
+     */
+    boolean offer(PageId pid) {
+        Stripe s = stripes[(int) mix(Thread.currentThread().getId()) & stripeMask];
+        long t = s.tail.get();
+        if (t - s.head.get() >= SLOTS)
+            return false;
+        if (s.tail.compareAndSet(t, t + 1))
+            s.slots.lazySet((int) (t & MASK), pid);
+        return true;
+    }
+
+    /** Hand every published hit to sink.  Callers must hold the eviction lock. */
+    void drainTo(Consumer<PageId> sink) {
+        for (Stripe s : stripes) {
+            long h = s.head.get();
+            long t = s.tail.get();
+            while (h < t) {
+                int idx = (int) (h & MASK);
+                PageId pid = s.slots.get(idx);
+                if (pid == null)
+                    break;   // reserved but not published yet, pick it up next time
+                s.slots.lazySet(idx, null);
+                sink.accept(pid);
+                h++;
+            }
+            s.head.lazySet(h);
+        }
+    }
+
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return x;
+    }
+}
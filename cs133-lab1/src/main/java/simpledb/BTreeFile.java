@@ -0,0 +1,419 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores the tuples of a
+ * table in the leaves of a B+tree, sorted on one of their fields, the key.
+ * Equality and range predicates on the key are answered by walking down to
+ * the first leaf that may hold a match and then along the chain of leaves
+ * until the keys pass the end of the range, instead of by reading the whole
+ * table.  Several tuples may have the same key.
+ * <p>
+ * Page 0 of the file is a meta page that names the root; the other pages
+ * are {@link BTreePage BTreePages}.  All pages are read and changed through
+ * the BufferPool, so they are cached, locked and logged like the pages of a
+ * HeapFile.  Inserts split full pages on the way down from the root, so a
+ * split never has to go back up the tree.  Deletes leave a page with fewer
+ * tuples, or none; pages are not merged.
+ *
+ * @see BTreePage
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int keyField;
+    private final PageIO io;
+
+    /**
+     * Constructs a B+tree file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the tree; it is created on the first
+     *            insert if it does not exist
+     * @param keyField
+     *            the index in td of the field the tuples are sorted on
+     * @throws IllegalArgumentException if a page does not have room for a
+     *         few tuples or keys
+     */
+    public BTreeFile(File f, TupleDesc td, int keyField) {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("no field " + keyField + " in " + td);
+        if (BTreePage.leafCapacity(td) < 2 || BTreePage.internalCapacity(td.getFieldType(keyField)) < 3)
+            throw new IllegalArgumentException("pages are too small for tuples of " + td);
+        this.f = f;
+        this.td = td;
+        this.keyField = keyField;
+        this.io = new PageIO(f);
+    }
+
+    /** @return the File backing this B+tree on disk */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, a hash of the
+     * absolute name of its file like {@link HeapFile#getId()}.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index in the TupleDesc of the field the tuples are sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /** @return the number of pages in the file, the meta page included */
+    public int numPages() {
+        return (int) (io.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId) || pid.getTableId() != getId())
+            throw new IllegalArgumentException("page " + pid + " is not a page of this file");
+        //空文件的元页读出来全是0 也就是一棵空树
+        if (pid.getPageNumber() < 0 || (pid.getPageNumber() > 0 && pid.getPageNumber() >= numPages()))
+            throw new IllegalArgumentException("page " + pid + " is past the end of the file");
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            io.read((long) pid.getPageNumber() * data.length, ByteBuffer.wrap(data));
+            return new BTreePage((BTreePageId) pid, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        io.write((long) page.getId().getPageNumber() * BufferPool.getPageSize(),
+                new ByteBuffer[] { ByteBuffer.wrap(page.getPageData()) });
+    }
+
+    /** The pages a change to the tree has pinned, and those it dirtied. */
+    private class Change {
+        final TransactionId tid;
+        final List<PageId> pinned = new ArrayList<PageId>();
+        final LinkedHashSet<Page> dirtied = new LinkedHashSet<Page>();
+
+        Change(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        BTreePage pin(int pgNo) throws DbException, TransactionAbortedException {
+            BTreePageId pid = new BTreePageId(getId(), pgNo);
+            BTreePage page = (BTreePage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_WRITE);
+            pinned.add(pid);
+            return page;
+        }
+
+        // Append an empty page of the given kind to the file and pin it.
+        BTreePage append(int kind) throws IOException, DbException, TransactionAbortedException {
+            //第0页是元页 哪怕它还没写到盘上
+            int pgNo = Math.max(numPages(), 1);
+            writePage(new BTreePage(new BTreePageId(getId(), pgNo), td, keyField, kind));
+            return pin(pgNo);
+        }
+
+        ArrayList<Page> finish() {
+            for (PageId pid : pinned)
+                Database.getBufferPool().unpinPage(pid);
+            pinned.clear();
+            return new ArrayList<Page>(dirtied);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        Field key = t.getField(keyField);
+        Change change = new Change(tid);
+        try {
+            BTreePage meta = change.pin(0);
+            if (meta.getRoot() == 0) {
+                BTreePage leaf = change.append(BTreePage.LEAF);
+                meta.setRoot(leaf.getId().getPageNumber());
+                change.dirtied.add(meta);
+            }
+            BTreePage node = change.pin(meta.getRoot());
+            if (node.isFull()) {
+                //根满了 先长高一层
+                BTreePage root = change.append(BTreePage.INTERNAL);
+                BTreePage right = change.append(node.isLeaf() ? BTreePage.LEAF : BTreePage.INTERNAL);
+                Field separator = node.splitInto(right);
+                root.setChildren(node.getId().getPageNumber(), separator, right.getId().getPageNumber());
+                meta.setRoot(root.getId().getPageNumber());
+                Collections.addAll(change.dirtied, meta, root, node, right);
+                node = root;
+            }
+            //往下走的时候把满的孩子分裂掉 父亲一定放得下分出来的键
+            while (node.isInternal()) {
+                int i = node.childIndex(key, true);
+                BTreePage child = change.pin(node.getChild(i));
+                if (child.isFull()) {
+                    BTreePage right = change.append(child.isLeaf() ? BTreePage.LEAF : BTreePage.INTERNAL);
+                    Field separator = child.splitInto(right);
+                    node.insertEntry(i, separator, right.getId().getPageNumber());
+                    Collections.addAll(change.dirtied, node, child, right);
+                    if (BTreePage.compare(key, separator) >= 0)
+                        child = right;
+                }
+                node = child;
+            }
+            node.insertTuple(node.position(key, true), t);
+            change.dirtied.add(node);
+        } finally {
+            change.finish();
+        }
+        return new ArrayList<Page>(change.dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId) || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this file");
+        Field key = t.getField(keyField);
+        Change change = new Change(tid);
+        try {
+            //先看记录号指的那一页 不对再从根找 (叶子分裂会移动元组)
+            BTreePage leaf = change.pin(rid.getPageId().getPageNumber());
+            int pos = leaf.isLeaf() ? find(leaf, t, rid.getTupleNumber()) : -1;
+            if (pos < 0) {
+                int root = change.pin(0).getRoot();
+                leaf = root == 0 ? null : change.pin(root);
+                while (leaf != null && leaf.isInternal())
+                    leaf = change.pin(leaf.getChild(leaf.childIndex(key, false)));
+                //相同的键可能跨好几个叶子
+                while (leaf != null && (pos = find(leaf, t, -1)) < 0) {
+                    int n = leaf.numTuples();
+                    boolean past = n > 0 && BTreePage.compare(leaf.getKey(leaf.getTuple(n - 1)), key) > 0;
+                    leaf = past || leaf.getNext() == 0 ? null : change.pin(leaf.getNext());
+                }
+            }
+            if (pos < 0)
+                throw new DbException("tuple " + t + " is not in this file");
+            leaf.removeTuple(pos);
+            change.dirtied.add(leaf);
+        } finally {
+            change.finish();
+        }
+        return new ArrayList<Page>(change.dirtied);
+    }
+
+    // The position on leaf of a tuple with the fields of t, trying slot first; -1 if none.
+    private int find(BTreePage leaf, Tuple t, int slot) {
+        if (slot >= 0 && slot < leaf.numTuples() && sameFields(leaf.getTuple(slot), t))
+            return slot;
+        Field key = t.getField(keyField);
+        for (int i = leaf.position(key, false); i < leaf.numTuples(); i++) {
+            Tuple other = leaf.getTuple(i);
+            if (BTreePage.compare(leaf.getKey(other), key) != 0)
+                break;
+            if (sameFields(other, t))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j)))
+                return false;
+        }
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new RangeIterator(tid, new Range(), Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies "key op
+     * value", in key order.  Equality and range operators only read the
+     * leaves that hold the matching keys.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        return iterator(tid, Collections.singletonList(new Predicate(keyField, op, value)));
+    }
+
+    /**
+     * Returns an iterator over the tuples that satisfy all of the given
+     * predicates, in key order.  The predicates on the key field bound the
+     * range of leaves that is read; the others are checked on each tuple in
+     * that range.
+     *
+     * @param predicates predicates whose fields are indexes into the TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        Range range = new Range();
+        for (Predicate p : predicates) {
+            if (p.getField() == keyField && p.getOperand().getType() == td.getFieldType(keyField))
+                range.restrict(p.getOp(), p.getOperand());
+        }
+        return new RangeIterator(tid, range, new ArrayList<Predicate>(predicates));
+    }
+
+    /** A range of keys; a null bound is open. */
+    private static class Range {
+        Field lo, hi;
+        boolean loInclusive, hiInclusive;
+
+        void restrict(Predicate.Op op, Field v) {
+            switch (op) {
+            case EQUALS:
+                restrictLo(v, true);
+                restrictHi(v, true);
+                break;
+            case GREATER_THAN:
+                restrictLo(v, false);
+                break;
+            case GREATER_THAN_OR_EQ:
+                restrictLo(v, true);
+                break;
+            case LESS_THAN:
+                restrictHi(v, false);
+                break;
+            case LESS_THAN_OR_EQ:
+                restrictHi(v, true);
+                break;
+            default:
+                //LIKE和NOT_EQUALS不能缩小范围
+            }
+        }
+
+        private void restrictLo(Field v, boolean inclusive) {
+            int c = lo == null ? 1 : BTreePage.compare(v, lo);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                lo = v;
+                loInclusive = inclusive;
+            }
+        }
+
+        private void restrictHi(Field v, boolean inclusive) {
+            int c = hi == null ? -1 : BTreePage.compare(v, hi);
+            if (c < 0 || (c == 0 && !inclusive)) {
+                hi = v;
+                hiInclusive = inclusive;
+            }
+        }
+
+        boolean beforeEnd(Field key) {
+            if (hi == null)
+                return true;
+            int c = BTreePage.compare(key, hi);
+            return c < 0 || (c == 0 && hiInclusive);
+        }
+    }
+
+    /** Walks the leaves from the first key of a range to its last. */
+    private class RangeIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final Range range;
+        private final List<Predicate> predicates;
+        private BTreePage leaf;
+        private int pos;
+        //下一个满足条件的元组 还没找过或者已经取走时为null
+        private Tuple next;
+        private boolean open;
+
+        RangeIterator(TransactionId tid, Range range, List<Predicate> predicates) {
+            this.tid = tid;
+            this.range = range;
+            this.predicates = predicates;
+        }
+
+        private BTreePage page(int pgNo) throws DbException, TransactionAbortedException {
+            return (BTreePage) Database.getBufferPool().getPage(tid,
+                    new BTreePageId(getId(), pgNo), Permissions.READ_ONLY);
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            open = true;
+            next = null;
+            leaf = null;
+            int root = numPages() == 0 ? 0 : page(0).getRoot();
+            if (root == 0)
+                return;
+            BTreePage node = page(root);
+            while (node.isInternal()) {
+                int i = range.lo == null ? 0 : node.childIndex(range.lo, false);
+                node = page(node.getChild(i));
+            }
+            leaf = node;
+            pos = range.lo == null ? 0 : leaf.position(range.lo, !range.loInclusive);
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("iterator is not open");
+            while (next == null && leaf != null) {
+                if (pos >= leaf.numTuples()) {
+                    leaf = leaf.getNext() == 0 ? null : page(leaf.getNext());
+                    pos = 0;
+                    continue;
+                }
+                Tuple t = leaf.getTuple(pos++);
+                Field key = leaf.getKey(t);
+                //相同的键可能留在前一个叶子上 起点之前的要跳过
+                if (range.lo != null) {
+                    int c = BTreePage.compare(key, range.lo);
+                    if (c < 0 || (c == 0 && !range.loInclusive))
+                        continue;
+                }
+                if (!range.beforeEnd(key)) {
+                    leaf = null;
+                    break;
+                }
+                boolean match = true;
+                for (Predicate p : predicates) {
+                    if (!p.filter(t)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match)
+                    next = t;
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            leaf = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * BTreePage stores one page of a {@link BTreeFile}.  A page is one of three
+ * kinds:
+ * <ul>
+ * <li>the meta page, page 0 of the file, which holds the page number of the
+ *     root, or 0 while the tree is empty;
+ * <li>an internal page, which holds n keys and n + 1 child page numbers.
+ *     The keys under child i are no less than key i - 1 and no greater than
+ *     key i, so equal keys may be found on both sides of a key;
+ * <li>a leaf page, which holds tuples sorted by their key and the page
+ *     number of the next leaf, or 0 on the last leaf.
+ * </ul>
+ * Every page starts with a {@link #HEADER_SIZE} byte header: the kind of
+ * the page, the number of tuples or keys on it, and the root, the next leaf
+ * or the first child.  An internal page then holds one key and child page
+ * number per key, a leaf page its tuples, at fixed sizes.  An all-zero page
+ * is the meta page of an empty tree.
+ * <p>
+ * Like {@link SlottedPage}, the page is decoded when it is read and its
+ * before image is only taken when it is first changed.
+ *
+ * @see BTreeFile
+ */
+public class BTreePage implements Page {
+
+    static final int META = 0;
+    static final int LEAF = 1;
+    static final int INTERNAL = 2;
+
+    /** Size of the page header, in bytes. */
+    static final int HEADER_SIZE = 9;
+
+    final BTreePageId pid;
+    final TupleDesc td;
+    final int keyField;
+    private final int kind;
+    //元页: 根的页号 叶子: 下一个叶子的页号 没有时为0
+    private int pointer;
+    //叶子上按键排好序的元组
+    private final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    //内部页的键和孩子的页号 孩子比键多一个
+    private final ArrayList<Field> keys = new ArrayList<Field>();
+    private final ArrayList<Integer> children = new ArrayList<Integer>();
+
+    //before image 第一次修改前才保存 为null时就是页面现在的内容
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a page from the {@link BufferPool#getPageSize()} bytes of data
+     * read from disk.  The table must be a {@link BTreeFile} in the catalog.
+     *
+     * @throws IOException if the bytes are not a page of this table
+     */
+    public BTreePage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        if (!(file instanceof BTreeFile))
+            throw new IOException("table " + id.getTableId() + " is not a b+tree");
+        this.td = file.getTupleDesc();
+        this.keyField = ((BTreeFile) file).keyField();
+        ByteBuffer page = ByteBuffer.wrap(data, 0, BufferPool.getPageSize()).slice();
+        kind = page.get(0);
+        int count = page.getInt(1);
+        pointer = page.getInt(5);
+        int pos = HEADER_SIZE;
+        if (kind == LEAF) {
+            if (count < 0 || count > leafCapacity(td))
+                throw new IOException("leaf " + id + " has a bad tuple count " + count);
+            for (int i = 0; i < count; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, readField(page, pos, td.getFieldType(j)));
+                    pos += td.getFieldType(j).getSizeInBytes();
+                }
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } else if (kind == INTERNAL) {
+            Type keyType = td.getFieldType(keyField);
+            if (count < 0 || count > internalCapacity(keyType))
+                throw new IOException("internal page " + id + " has a bad key count " + count);
+            //新追加的内部页还没有孩子
+            if (count > 0)
+                children.add(pointer);
+            for (int i = 0; i < count; i++) {
+                keys.add(readField(page, pos, keyType));
+                pos += keyType.getSizeInBytes();
+                children.add(page.getInt(pos));
+                pos += 4;
+            }
+        } else if (kind != META) {
+            throw new IOException("page " + id + " is not a b+tree page");
+        }
+    }
+
+    /** Create an empty page of the given kind, to be appended to the file. */
+    BTreePage(BTreePageId id, TupleDesc td, int keyField, int kind) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+        this.kind = kind;
+    }
+
+    /** @return the number of tuples that fit on a leaf of a table with schema td */
+    static int leafCapacity(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSizeInBytes();
+    }
+
+    /** @return the number of keys that fit on an internal page, for keys of type keyType */
+    static int internalCapacity(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getSizeInBytes() + 4);
+    }
+
+    private static Field readField(ByteBuffer page, int pos, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField(page.getInt(pos));
+        int len = Math.max(0, Math.min(Type.STRING_LEN, page.getInt(pos)));
+        byte[] bs = new byte[len];
+        page.get(pos + 4, bs);
+        return new StringField(new String(bs), Type.STRING_LEN);
+    }
+
+    /** @return a negative number, zero or a positive number as a is less than, equal to or greater than b */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    boolean isLeaf() {
+        return kind == LEAF;
+    }
+
+    boolean isInternal() {
+        return kind == INTERNAL;
+    }
+
+    /** @return whether the page has no room for another tuple or key */
+    boolean isFull() {
+        if (kind == LEAF)
+            return tuples.size() >= leafCapacity(td);
+        return kind == INTERNAL && keys.size() >= internalCapacity(td.getFieldType(keyField));
+    }
+
+    // ---- meta page
+
+    /** @return the page number of the root, or 0 if the tree is empty */
+    int getRoot() {
+        return pointer;
+    }
+
+    void setRoot(int pgNo) {
+        captureBeforeImage();
+        pointer = pgNo;
+    }
+
+    // ---- leaf pages
+
+    int numTuples() {
+        return tuples.size();
+    }
+
+    Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    Field getKey(Tuple t) {
+        return t.getField(keyField);
+    }
+
+    /** @return the page number of the next leaf, or 0 on the last leaf */
+    int getNext() {
+        return pointer;
+    }
+
+    /**
+     * @return the position of the first tuple whose key is at least key, or
+     *         greater than key if after is set
+     */
+    int position(Field key, boolean after) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(getKey(tuples.get(mid)), key);
+            if (c < 0 || (after && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    void insertTuple(int i, Tuple t) {
+        captureBeforeImage();
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    void removeTuple(int i) {
+        captureBeforeImage();
+        tuples.remove(i).setRecordId(null);
+        renumber(i);
+    }
+
+    // Update the record ids of the tuples from position i on.
+    private void renumber(int i) {
+        for (; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    // ---- internal pages
+
+    int numKeys() {
+        return keys.size();
+    }
+
+    Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    int getChild(int i) {
+        return children.get(i);
+    }
+
+    /**
+     * @return the index of the child under which key belongs: the first one
+     *         whose upper key is at least key, or greater than key if after
+     *         is set
+     */
+    int childIndex(Field key, boolean after) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(keys.get(mid), key);
+            if (c < 0 || (after && c == 0))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Make this empty internal page the root over left and right, split at key. */
+    void setChildren(int left, Field key, int right) {
+        captureBeforeImage();
+        keys.clear();
+        children.clear();
+        children.add(left);
+        keys.add(key);
+        children.add(right);
+    }
+
+    /** Insert key after child i, with the child to its right. */
+    void insertEntry(int i, Field key, int rightChild) {
+        captureBeforeImage();
+        keys.add(i, key);
+        children.add(i + 1, rightChild);
+    }
+
+    /**
+     * Move the upper half of this page to right, an empty page of the same
+     * kind that follows it, and return the key that separates them.  A leaf
+     * keeps its half of the tuples and links to right; an internal page
+     * gives up its middle key.
+     */
+    Field splitInto(BTreePage right) {
+        captureBeforeImage();
+        right.captureBeforeImage();
+        if (kind == LEAF) {
+            int mid = tuples.size() / 2;
+            List<Tuple> upper = tuples.subList(mid, tuples.size());
+            right.tuples.addAll(upper);
+            upper.clear();
+            right.renumber(0);
+            right.pointer = pointer;
+            pointer = right.pid.getPageNumber();
+            return getKey(right.tuples.get(0));
+        }
+        int mid = keys.size() / 2;
+        Field separator = keys.get(mid);
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return separator;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.put(0, (byte) kind);
+        page.position(HEADER_SIZE);
+        if (kind == LEAF) {
+            page.putInt(1, tuples.size());
+            page.putInt(5, pointer);
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(page);
+            }
+        } else if (kind == INTERNAL) {
+            page.putInt(1, keys.size());
+            page.putInt(5, children.isEmpty() ? 0 : children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(page);
+                page.putInt(children.get(i + 1));
+            }
+        } else {
+            page.putInt(5, pointer);
+        }
+        return data;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public BTreePage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new BTreePage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Copy-on-write: the before image is only taken when the page is first
+    // changed after it was read or committed.
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the pages of committed transactions back to their files in the
+ * background.
+ * <p>
+ * When a transaction commits, the BufferPool logs its dirty pages, forces
+ * the log and hands the pages to the writer.  They stay dirty in the pool
+ * until the writer thread gets to them: it keeps one queue per DbFile,
+ * sorted by page number, and writes each queue with
+ * {@link DbFile#writePages}, which turns runs of adjacent pages into a
+ * single write.  The log is forced before every round, so a page is never
+ * on disk before the log records that describe it.
+ * <p>
+ * The writer runs every {@link #FLUSH_INTERVAL_MS} milliseconds while there
+ * is anything to write, and at once when the BufferPool sees the number of
+ * clean pages drop below its low watermark, so that eviction rarely finds
+ * nothing but dirty pages.  Committed pages that are still queued may be
+ * evicted; the BufferPool writes them synchronously first.  The thread exits
+ * when the queues are empty and is started again by the next commit.
+ */
+class BackgroundWriter {
+
+    static final long FLUSH_INTERVAL_MS = 200;
+
+    /** Most pages whose monitors are held by one write. */
+    static final int WRITE_BATCH = 64;
+
+    private final ConcurrentHashMap<PageId, BufferFrame> frames;
+
+    //每个表一个写队列 按页号排序 页 -> 提交了这一页的事务
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<PageId, TransactionId>> queues =
+            new ConcurrentHashMap<Integer, ConcurrentSkipListMap<PageId, TransactionId>>();
+    private final AtomicInteger pending = new AtomicInteger();
+    //从队列里拿出来 正在写的页
+    private final ConcurrentHashMap<PageId, TransactionId> writing =
+            new ConcurrentHashMap<PageId, TransactionId>();
+
+    //protected by this
+    private Thread thread;
+    private boolean wakeRequested;
+
+    /** @param frames the page table of the BufferPool this writer works for */
+    BackgroundWriter(ConcurrentHashMap<PageId, BufferFrame> frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * Queue a page that tid has committed.  Its update records must already
+     * be forced to the log.
+     */
+    void enqueue(PageId pid, TransactionId tid) {
+        if (queue(pid).put(pid, tid) == null)
+            pending.incrementAndGet();
+        synchronized (this) {
+            ensureRunning();
+        }
+    }
+
+    /**
+     * @return the committed transaction whose changes to pid have not been
+     *         written yet, or null
+     */
+    TransactionId committedBy(PageId pid) {
+        ConcurrentSkipListMap<PageId, TransactionId> q = queues.get(pid.getTableId());
+        TransactionId tid = q == null ? null : q.get(pid);
+        return tid != null ? tid : writing.get(pid);
+    }
+
+    /** @return true if the page is dirty only with changes of committed transactions */
+    boolean isCommitted(PageId pid, TransactionId dirtier) {
+        return dirtier != null && dirtier.equals(committedBy(pid));
+    }
+
+    /** Drop a page from the queues, because it was written or discarded. */
+    void forget(PageId pid) {
+        ConcurrentSkipListMap<PageId, TransactionId> q = queues.get(pid.getTableId());
+        if (q != null && q.remove(pid) != null)
+            pending.decrementAndGet();
+    }
+
+    /** @return the number of committed pages waiting to be written */
+    int pendingPages() {
+        return pending.get();
+    }
+
+    /** Ask the writer thread to start a round now. */
+    synchronized void wakeUp() {
+        wakeRequested = true;
+        if (pending.get() > 0)
+            ensureRunning();
+        notifyAll();
+    }
+
+    // caller holds this
+    private void ensureRunning() {
+        if (thread == null) {
+            thread = new Thread(this::run, "simpledb-page-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            synchronized (this) {
+                if (!wakeRequested) {
+                    try {
+                        wait(FLUSH_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        thread = null;
+                        return;
+                    }
+                }
+                wakeRequested = false;
+                if (pending.get() == 0) {
+                    thread = null;
+                    return;
+                }
+            }
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                //页还在队列里 下一轮再试
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Write every queued page that is still resident and committed. */
+    private void writeQueued() throws IOException {
+        Database.getLogFile().force();
+        for (ConcurrentSkipListMap<PageId, TransactionId> q : queues.values()) {
+            List<Page> batch = new ArrayList<Page>();
+            for (Map.Entry<PageId, TransactionId> e : q.entrySet()) {
+                BufferFrame frame = frames.get(e.getKey());
+                Page page = frame == null ? null : frame.getPage();
+                if (page == null || page.isDirty() == null) {
+                    //已经被换出或者丢弃了
+                    if (q.remove(e.getKey(), e.getValue()))
+                        pending.decrementAndGet();
+                } else if (e.getValue().equals(page.isDirty())) {
+                    batch.add(page);
+                }
+                //否则这一页又被一个未提交的事务修改了 等它提交
+            }
+            try {
+                writeCommitted(batch);
+            } catch (NoSuchElementException e) {
+                //表已经不在catalog里了 它的页没有地方可写
+                for (PageId pid : q.keySet())
+                    forget(pid);
+            }
+        }
+    }
+
+    /**
+     * Write pages to their files, in sorted, coalesced
+     * {@link DbFile#writePages} calls, and mark them clean.  The caller has
+     * made sure the log describes every page.
+     * <p>
+     * The monitors of a batch of pages are held, in page number order, from
+     * the moment their dirtiers are read until their dirty flags are
+     * cleared, so a page cannot be changed while it is encoded and a change
+     * made after the write is never lost.  A committed page is taken off its
+     * queue before it is written: the writer thread and an evicting thread
+     * that both picked it write it once.  Pages that are already clean when
+     * their monitor is taken are skipped.
+     */
+    void write(List<Page> pages) throws IOException {
+        write(pages, false);
+    }
+
+    /**
+     * Like {@link #write}, but only writes the pages that are still dirty
+     * with the changes of the committed transaction they are queued for.  A
+     * page that a running transaction changed since it was picked is left
+     * alone, so its changes never reach the disk before they are logged.
+     */
+    void writeCommitted(List<Page> pages) throws IOException {
+        write(pages, true);
+    }
+
+    private void write(List<Page> pages, boolean committedOnly) throws IOException {
+        if (pages.isEmpty())
+            return;
+        Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+        for (Page p : pages)
+            byTable.computeIfAbsent(p.getId().getTableId(), k -> new ArrayList<Page>()).add(p);
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            List<Page> list = e.getValue();
+            list.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+            DbFile file = Database.getCatalog().getDatabaseFile(e.getKey());
+            for (int i = 0; i < list.size(); i += WRITE_BATCH)
+                writeLocked(file, list.subList(i, Math.min(i + WRITE_BATCH, list.size())), 0, committedOnly);
+        }
+    }
+
+    // Take the monitors of batch[i..] in order, then write the batch.
+    private void writeLocked(DbFile file, List<Page> batch, int i, boolean committedOnly)
+            throws IOException {
+        if (i < batch.size()) {
+            synchronized (batch.get(i)) {
+                writeLocked(file, batch, i + 1, committedOnly);
+            }
+            return;
+        }
+        List<Page> dirty = new ArrayList<Page>(batch.size());
+        List<TransactionId> dirtiers = new ArrayList<TransactionId>(batch.size());
+        for (Page p : batch) {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier == null)
+                continue;
+            //已提交的页先从队列里拿走 别的线程就不会再写一遍
+            boolean claimed = claim(p.getId(), dirtier);
+            if (claimed || !committedOnly) {
+                dirty.add(p);
+                dirtiers.add(claimed ? dirtier : null);
+            }
+        }
+        if (dirty.isEmpty())
+            return;
+        boolean written = false;
+        try {
+            file.writePages(dirty);
+            written = true;
+            for (Page p : dirty)
+                p.markDirty(false, null);
+        } finally {
+            for (int j = 0; j < dirty.size(); j++)
+                release(dirty.get(j).getId(), dirtiers.get(j), written);
+        }
+    }
+
+    // Move a page that tid committed from its queue to the pages being written.
+    private boolean claim(PageId pid, TransactionId tid) {
+        ConcurrentSkipListMap<PageId, TransactionId> q = queues.get(pid.getTableId());
+        if (q != null && q.remove(pid, tid)) {
+            writing.put(pid, tid);
+            pending.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    // Done with a claimed page; it goes back on its queue if it was not written.
+    private void release(PageId pid, TransactionId tid, boolean written) {
+        if (tid == null)
+            return;
+        if (!written && queue(pid).putIfAbsent(pid, tid) == null)
+            pending.incrementAndGet();
+        writing.remove(pid, tid);
+    }
+
+    private ConcurrentSkipListMap<PageId, TransactionId> queue(PageId pid) {
+        return queues.computeIfAbsent(pid.getTableId(),
+                k -> new ConcurrentSkipListMap<PageId, TransactionId>(
+                        Comparator.comparingInt(PageId::getPageNumber)));
+    }
+}
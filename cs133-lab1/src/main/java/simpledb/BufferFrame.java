@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A slot of the BufferPool's page table.
+ * <p>
+ * A frame is put into the page table before its page has been read, with its
+ * latch held exclusively by the loading thread.  Other threads that miss on
+ * the same page find the frame, wait for the latch and then share the page
+ * the loader read, so a page is read from disk only once no matter how many
+ * threads ask for it at the same time.
+ * <p>
+ * The latch is a short-term physical latch, not a transaction lock: it is
+ * held exclusively while the page is loaded or replaced and it keeps the
+ * frame from being evicted in the meantime.
+ * <p>
+ * A frame can also be pinned by code that keeps using its page after
+ * {@link BufferPool#getPage} has returned, such as a scan that is iterating
+ * over the tuples of the page.  Pinned frames are never evicted.  The pin
+ * count is a reference count; eviction retires a frame by swapping a count
+ * of 0 for -1, after which the frame cannot be pinned any more.
+ */
+class BufferFrame {
+
+    final PageId pid;
+    final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+    //堆外模式下分配给该页的PageArena页框号 没有则为-1
+    int arenaFrame = -1;
+    //该页所属的缓存池分区 protected by the BufferPool's eviction lock
+    BufferPartition partition;
+    //命中次数 用来找出最热的页 并发更新时可能少计几次
+    volatile int hits;
+    //由预读读入 还没有被扫描真正访问过
+    volatile boolean prefetched;
+
+    //引用计数 -1表示页框已经被换出
+    private final AtomicInteger pins = new AtomicInteger();
+
+    private volatile Page page;
+    private volatile DbException failure;
+
+    BufferFrame(PageId pid) {
+        this.pid = pid;
+    }
+
+    /** @return the resident page, or null if it is still being loaded */
+    Page getPage() {
+        return page;
+    }
+
+    /** Install the page read by the loader.  The caller holds the write latch. */
+    void setPage(Page page) {
+        this.page = page;
+    }
+
+    /** Record why the loader could not read the page.  The caller holds the write latch. */
+    void fail(DbException e) {
+        this.failure = e;
+    }
+
+    /**
+     * Wait until the loading thread is done with this frame.
+     *
+     * @return the page, or null if the frame was given up and the page has to
+     *         be looked up again
+     * @throws DbException if the loader failed to read the page
+     */
+    Page awaitPage() throws DbException {
+        Page p = page;
+        if (p != null)
+            return p;
+        latch.readLock().lock();
+        latch.readLock().unlock();
+        if (failure != null)
+            throw failure;
+        return page;
+    }
+
+    /**
+     * Add a reference to this frame.
+     *
+     * @return false if the frame has already been evicted
+     */
+    boolean pin() {
+        while (true) {
+            int n = pins.get();
+            if (n < 0)
+                return false;
+            if (pins.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    /** Drop a reference added by {@link #pin}. */
+    void unpin() {
+        while (true) {
+            int n = pins.get();
+            if (n <= 0)
+                throw new IllegalStateException("page " + pid + " is not pinned");
+            if (pins.compareAndSet(n, n - 1))
+                return;
+        }
+    }
+
+    /** @return true if somebody holds a reference to this frame */
+    boolean isPinned() {
+        return pins.get() > 0;
+    }
+
+    /**
+     * Mark the frame as evicted, unless it is pinned.  The caller holds the
+     * BufferPool's eviction lock and removes the frame from the page table
+     * right after.
+     *
+     * @return false if the frame is pinned
+     */
+    boolean retire() {
+        return pins.compareAndSet(0, -1);
+    }
+
+    /** @return true if the page has been read and nobody holds or pins the frame */
+    boolean isIdle() {
+        return page != null && !latch.isWriteLocked() && pins.get() == 0;
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * A named share of the BufferPool with its own replacement policy.
+ * <p>
+ * Every table belongs to one partition (see {@link Catalog#setPartition});
+ * tables that are not assigned anywhere use
+ * {@link BufferPool#DEFAULT_PARTITION}.  A partition never holds more than
+ * {@code maxPages} pages, and the pages it holds up to {@code minPages} are
+ * never taken away by loads into other partitions.
+ * <p>
+ * When the pool is full, a load into a partition below its maximum takes a
+ * page from the partition that is furthest above its own minimum, and a
+ * partition at its maximum, or with no such page to take, recycles one of
+ * its own pages.  So a partition can grow up to its maximum at the expense
+ * of others' surplus, while a batch load into a "bulk" partition cannot
+ * push a "hot" partition below its minimum, nor grow past its own maximum.
+ * <p>
+ * The page count, the policy and the maximum of the default partition,
+ * which follows the size of the pool, are protected by the BufferPool's
+ * eviction lock.
+ */
+class BufferPartition {
+
+    final String name;
+    final int minPages;
+    //默认分区的上限随缓存池大小变化 protected by evictionLock
+    volatile int maxPages;
+    final EvictionPolicy policy;
+
+    //该分区当前占用的页框数(包括正在读入的) protected by evictionLock
+    int resident = 0;
+
+    BufferPartition(String name, int minPages, int maxPages, EvictionPolicy policy) {
+        this.name = name;
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+        this.policy = policy;
+    }
+
+    /** @return how many pages this partition holds beyond its guaranteed minimum */
+    int excess() {
+        return resident - minPages;
+    }
+}
@@ -1,9 +1,13 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
-import java.util.HashMap;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,8 +17,43 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a ConcurrentHashMap of {@link BufferFrame}s, so a hit
+ * takes no lock at all.  Misses on the same page are collapsed into a single
+ * read by the frame's latch, and only the bookkeeping of the replacement
+ * policy (page count, eviction) is serialized on a pool-wide eviction lock,
+ * which is never held while a page is read from disk.
+ * <p>
+ * In off-heap mode (see {@link #BufferPool(int, EvictionPolicy, boolean)})
+ * every resident page is read into a frame of a {@link PageArena} that is
+ * allocated up front, and the page keeps its on-disk image there instead of
+ * in a byte array on the Java heap.
+ * <p>
+ * The pool is split into named {@link BufferPartition}s with their own
+ * page quotas and replacement policies; each table is assigned to one of
+ * them in the {@link Catalog}, and misses are routed by
+ * {@link PageId#getTableId()}.  Until partitions are added with
+ * {@link #addPartition}, every table uses the whole pool.
+ * <p>
+ * Pages of committed transactions are written back by a
+ * {@link BackgroundWriter}.  Whenever fewer than
+ * {@link #getCleanLowWatermark()} pages of the pool are clean or about to be
+ * written, the writer is woken up, so eviction almost always finds a clean
+ * page to drop.
+ * 
+ * <p>
+ * The ids of the most frequently hit pages can be saved with
+ * {@link #saveHotPages} (LogFile does so on shutdown) and read back in
+ * page-number order with {@link #warmUp} after a restart.
+ * <p>
+ * Code that keeps using a page after getPage has returned, e.g. to iterate
+ * over its tuples in place, pins it with {@link #pinPage} and releases it
+ * with {@link #unpinPage}; a pinned page is never evicted.
+ * <p>
+ * The pool can be grown or shrunk while it is in use with {@link #resize};
+ * cached pages survive, and surplus pages are evicted in the background.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -27,23 +66,297 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** System property that turns on off-heap frames for pools created
+    without an explicit mode, e.g. -Dsimpledb.BufferPool.offHeap=true */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.BufferPool.offHeap";
 
-    private final int PAGES_NUM;
+
+    /** Name of the partition of tables that are not assigned to any other. */
+    public static final String DEFAULT_PARTITION = "default";
+
+    //缓存池的页数 可以用resize在线调整 只在持有evictionLock时修改
+    private volatile int PAGES_NUM;
 
     //当前的缓存页
-    private HashMap<PageId, Page> pid2pages;
+    private final ConcurrentHashMap<PageId, BufferFrame> frames;
+
+    //缓存池分区 每个分区有自己的页面替换策略 只能在持有evictionLock时修改
+    private final ConcurrentHashMap<String, BufferPartition> partitions;
+    private final BufferPartition defaultPartition;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Condition loadDone = evictionLock.newCondition();
+    private final AccessBuffer accesses = new AccessBuffer();
+    //已经占用的页框数(包括正在读入的) protected by evictionLock
+    private int residentCount = 0;
+    //正在读入的页框数 protected by evictionLock
+    private int loadingCount = 0;
+    //堆外页框 堆内模式下为null
+    private final PageArena arena;
+    //缩小缓存池后在后台换出多余页的线程 protected by evictionLock
+    private Thread shrinker;
+    //后台写回已提交的脏页
+    private final BackgroundWriter writer;
+    private volatile int cleanLowWatermark;
+
+    /** Default for {@link #setBulkReadFraction}: scans of tables bigger than
+    the whole pool use a private ring. */
+    public static final double DEFAULT_BULK_READ_FRACTION = 1.0;
+    private volatile double bulkReadFraction = DEFAULT_BULK_READ_FRACTION;
+    //绕过缓存池追加过页的事务 -> 表
+    private final ConcurrentHashMap<TransactionId, Set<Integer>> appendedTables =
+            new ConcurrentHashMap<TransactionId, Set<Integer>>();
     /** TODO for Lab 4: create instance of Lock Manager class. 
 	Be sure to instantiate it in the constructor. */
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with CLOCK-Pro.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockProPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.  Frames are
+     * off-heap if the {@link #OFF_HEAP_PROPERTY} system property is set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy of the default partition
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
+        this(numPages, policy, Boolean.getBoolean(OFF_HEAP_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy of the default partition
+     * @param offHeap if true, preallocate numPages off-heap frames of
+     *                {@link #getPageSize()} bytes and read pages into them
+     */
+    public BufferPool(int numPages, EvictionPolicy policy, boolean offHeap) {
         // some code goes here
         PAGES_NUM=numPages;
-        pid2pages=new HashMap<>(PAGES_NUM);
+        frames=new ConcurrentHashMap<>(PAGES_NUM * 2, 0.75f,
+                Runtime.getRuntime().availableProcessors());
+        this.partitions=new ConcurrentHashMap<>();
+        this.defaultPartition=new BufferPartition(DEFAULT_PARTITION, 0, numPages, policy);
+        partitions.put(DEFAULT_PARTITION, defaultPartition);
+        this.arena=offHeap ? new PageArena(numPages, getPageSize()) : null;
+        this.writer=new BackgroundWriter(frames);
+        this.cleanLowWatermark=Math.max(1, numPages / 10);
+    }
+
+    /**
+     * Change the number of pages of this pool while it is in use, without
+     * dropping what is cached.  Growing takes effect at once.  When the pool
+     * shrinks, new misses evict until the pool fits again, and a background
+     * thread evicts the surplus clean pages through the normal replacement
+     * policies, waking the background writer for the dirty ones; pages of
+     * running transactions stay until they are committed.
+     * <p>
+     * The default partition follows the new size; other partitions keep
+     * their quotas but can never hold more than the whole pool.  Off-heap
+     * frames are added when the pool grows and kept when it shrinks.
+     *
+     * @param newPages the new maximum number of pages
+     * @throws IllegalArgumentException if newPages is smaller than the sum
+     *         of the partitions' minimum quotas
+     */
+    public void resize(int newPages) {
+        if (newPages < 1)
+            throw new IllegalArgumentException("a buffer pool needs at least one page");
+        evictionLock.lock();
+        try {
+            int reserved = 0;
+            for (BufferPartition p : partitions.values())
+                reserved += p.minPages;
+            if (newPages < reserved)
+                throw new IllegalArgumentException("minimum quotas of " + reserved
+                        + " pages do not fit in a pool of " + newPages);
+            PAGES_NUM = newPages;
+            defaultPartition.maxPages = newPages;
+            for (BufferPartition p : partitions.values())
+                p.policy.setCapacity(Math.min(p.maxPages, newPages));
+            if (cleanLowWatermark > newPages)
+                cleanLowWatermark = newPages;
+            if (arena != null)
+                arena.grow(newPages);
+            loadDone.signalAll();
+            if (residentCount > newPages && shrinker == null) {
+                shrinker = new Thread(this::shrink, "simpledb-pool-shrink");
+                shrinker.setDaemon(true);
+                shrinker.start();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // runs on the shrinker thread until the pool fits its size again
+    private void shrink() {
+        evictionLock.lock();
+        try {
+            while (residentCount > PAGES_NUM) {
+                drainAccesses();
+                if (!evictSurplus()) {
+                    //剩下的都是脏页或正在读入的页 等后台写线程写完再试
+                    writer.wakeUp();
+                    try {
+                        loadDone.await(BackgroundWriter.FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            shrinker = null;
+            evictionLock.unlock();
+        }
+    }
+
+    // evict one clean page, from a partition over its maximum if there is one
+    private boolean evictSurplus() {
+        List<BufferPartition> parts = new ArrayList<BufferPartition>(partitions.values());
+        parts.sort((a, b) -> (b.resident - b.maxPages) != (a.resident - a.maxPages)
+                ? (b.resident - b.maxPages) - (a.resident - a.maxPages)
+                : b.excess() - a.excess());
+        for (BufferPartition p : parts) {
+            try {
+                if (p.resident > 0 && evictPage(p, false)) {
+                    return true;
+                }
+            } catch (DbException e) {
+                // only happens when writing, which the shrinker leaves to the writer
+            }
+        }
+        return false;
+    }
+
+    /** @return true if resident pages live in off-heap frames */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return PAGES_NUM;
+    }
+
+    /**
+     * Add a partition to this pool.  Tables are assigned to it with
+     * {@link Catalog#setPartition}; pages that are already resident stay
+     * where they are.
+     *
+     * @param name the name of the partition
+     * @param minPages the number of pages no other partition can take from
+     *                 this one; the minimums of all partitions must fit in
+     *                 the pool
+     * @param maxPages the most pages this partition may hold
+     * @param policy the replacement policy of the partition, sized for
+     *               maxPages pages
+     * @throws IllegalArgumentException if the partition exists already or
+     *         the quotas do not fit
+     */
+    public void addPartition(String name, int minPages, int maxPages, EvictionPolicy policy) {
+        if (minPages < 0 || minPages > maxPages || maxPages > PAGES_NUM)
+            throw new IllegalArgumentException("bad quota " + minPages + ".." + maxPages
+                    + " for partition " + name);
+        evictionLock.lock();
+        try {
+            if (partitions.containsKey(name))
+                throw new IllegalArgumentException("partition " + name + " already exists");
+            int reserved = minPages;
+            for (BufferPartition p : partitions.values())
+                reserved += p.minPages;
+            if (reserved > PAGES_NUM)
+                throw new IllegalArgumentException("minimum quotas of " + reserved
+                        + " pages do not fit in a pool of " + PAGES_NUM);
+            partitions.put(name, new BufferPartition(name, minPages, maxPages, policy));
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Add a partition that replaces pages with CLOCK-Pro.
+     *
+     * @see #addPartition(String, int, int, EvictionPolicy)
+     */
+    public void addPartition(String name, int minPages, int maxPages) {
+        addPartition(name, minPages, maxPages, new ClockProPolicy(maxPages));
+    }
+
+    /**
+     * @return the number of pages currently held by the named partition,
+     *         including pages being read in
+     * @throws IllegalArgumentException if there is no such partition
+     */
+    public int getPartitionPages(String name) {
+        BufferPartition p = partitions.get(name);
+        if (p == null)
+            throw new IllegalArgumentException("no partition " + name);
+        evictionLock.lock();
+        try {
+            return p.resident;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** @return the partition that holds the pages of the given table */
+    private BufferPartition partitionOf(int tableId) {
+        String name = Database.getCatalog().getPartition(tableId);
+        return partitions.getOrDefault(name, defaultPartition);
+    }
+
+    /** @return the most pages the given table can have in this pool */
+    int capacityFor(int tableId) {
+        return partitionOf(tableId).maxPages;
+    }
+
+    /**
+     * Set the number of pages of this pool that should be clean or queued
+     * for writing at any time.  When there are fewer, the background writer
+     * is asked to write the queued pages at once instead of waiting for its
+     * next round.
+     *
+     * @param pages the low watermark, between 0 and getNumPages()
+     */
+    public void setCleanLowWatermark(int pages) {
+        if (pages < 0 || pages > PAGES_NUM)
+            throw new IllegalArgumentException("bad clean page low watermark " + pages);
+        cleanLowWatermark = pages;
+    }
+
+    /** @return the clean page low watermark, see {@link #setCleanLowWatermark} */
+    public int getCleanLowWatermark() {
+        return cleanLowWatermark;
+    }
+
+    /**
+     * Set how large a table must be, relative to this pool, before a
+     * sequential scan of it reads through a private {@link ScanRing}
+     * instead of the shared pool.
+     *
+     * @param fraction a table with more than fraction * getNumPages() pages
+     *                 is scanned in bulk read mode
+     */
+    public void setBulkReadFraction(double fraction) {
+        if (fraction <= 0)
+            throw new IllegalArgumentException("bulk read fraction must be positive");
+        bulkReadFraction = fraction;
+    }
+
+    /**
+     * @param tablePages the number of pages of the table about to be scanned
+     * @return true if a sequential scan of the table should use a ScanRing
+     */
+    public boolean isBulkRead(int tablePages) {
+        return tablePages > bulkReadFraction * PAGES_NUM;
     }
     
     public static int getPageSize() {
@@ -74,29 +387,588 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * Pages of memory-mapped files (see {@link DbFile#isMemoryMapped()}) that
+     * are not resident and only read are returned straight from the file
+     * without being added to the pool.
+     *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        if(pid2pages.containsKey(pid)){  //先到缓冲池中寻找 命中则取出
-            return pid2pages.get(pid);
-        }else{  //未命中则更新池子
-            HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = heapFile.readPage(pid); //
-            addNewPage(pid,page); //更新页面到缓存池中
-            return page;
+        return fetchPage(tid, pid, perm, false);
+    }
+
+    /**
+     * @param resident whether the page has to be in the pool when this
+     *                 returns, even if it is a read only page of a mapped file
+     */
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, boolean resident)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            BufferFrame frame = frames.get(pid);  //先到缓冲池中寻找 命中则取出
+            if (frame == null && !resident && perm == Permissions.READ_ONLY) {
+                //映射的文件读页不需要I/O 只读的页不进缓存池
+                DbFile file = databaseFile(pid);
+                if (file.isMemoryMapped()) {
+                    return readFrom(file, pid);
+                }
+            }
+            if (frame == null) {  //未命中则占一个页框 由当前线程负责读入
+                BufferFrame mine = new BufferFrame(pid);
+                mine.latch.writeLock().lock();
+                frame = frames.putIfAbsent(pid, mine);
+                if (frame == null) {
+                    return loadPage(mine);
+                }
+                mine.latch.writeLock().unlock();
+            }
+            Page page = frame.awaitPage();  //别的线程正在读入这一页 等它读完
+            if (page != null) {
+                if (frame.prefetched) {
+                    //预读的页第一次被访问 相当于一次未命中 不算作访问
+                    frame.prefetched = false;
+                } else {
+                    frame.hits++;
+                    recordAccess(pid);
+                }
+                return page;
+            }
+            //页框在读入前就被放弃了 重新查找
         }
     }
 
-    private void addNewPage(PageId pid, Page newPage) {
-        pid2pages.put(pid, newPage);
-        //如果超出了最大的缓存页数量
-        if (pid2pages.size() > PAGES_NUM) {
-            // TODO: 实现缓存池替换策略
+    /**
+     * Retrieve several pages with the associated permissions, like
+     * {@link #getPage} does for each of them.  The pages that are not
+     * resident are installed in one pass: room is made for all of them at
+     * once and each run of consecutive pages of a table is read with one
+     * call to {@link DbFile#readPages}.  If the pool cannot make room for the
+     * whole batch without waiting, the rest of the pages are read one at a
+     * time.
+     *
+     * @param tid the ID of the transaction requesting the pages
+     * @param pids the IDs of the requested pages, best sorted by table and
+     *             page number
+     * @param perm the requested permissions on the pages
+     * @return the pages, in the order of pids
+     */
+    public List<Page> getPages(TransactionId tid, List<PageId> pids, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        Map<PageId, Page> loaded = installPages(pids, false, perm);
+        List<Page> pages = new ArrayList<Page>(pids.size());
+        for (PageId pid : pids) {
+            Page page = loaded.get(pid);
+            pages.add(page != null ? page : getPage(tid, pid, perm));
         }
+        return pages;
     }
+
+    /**
+     * Put frames for the pages of pids that are not resident into the page
+     * table and read them with {@link #loadPages}.  Read only pages of
+     * memory-mapped files are left alone.
+     *
+     * @return the pages that were read
+     */
+    private Map<PageId, Page> installPages(List<PageId> pids, boolean prefetched, Permissions perm)
+        throws DbException {
+        List<BufferFrame> mine = new ArrayList<BufferFrame>();
+        for (PageId pid : pids) {
+            if (frames.containsKey(pid)
+                    || (perm == Permissions.READ_ONLY && !prefetched && databaseFile(pid).isMemoryMapped())) {
+                continue;
+            }
+            BufferFrame frame = new BufferFrame(pid);
+            frame.prefetched = prefetched;
+            frame.latch.writeLock().lock();
+            if (frames.putIfAbsent(pid, frame) == null) {
+                mine.add(frame);
+            } else {
+                frame.latch.writeLock().unlock();
+            }
+        }
+        Map<PageId, Page> loaded = new HashMap<PageId, Page>();
+        if (!mine.isEmpty()) {
+            for (BufferFrame frame : loadPages(mine)) {
+                loaded.put(frame.pid, frame.getPage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage} and pin it, so it
+     * stays in the pool until it is released with {@link #unpinPage}.  A
+     * page may be pinned several times; it can be evicted again once every
+     * pin has been released.
+     * <p>
+     * Only code that keeps using a Page object, such as a file iterator,
+     * needs a pin.  The operators of lab2, e.g. Join with its current outer
+     * tuple, hold Tuples, whose fields are decoded copies that never refer
+     * to page memory, so they need none.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinFrame(tid, pid, perm).getPage();
+    }
+
+    /** Like {@link #pinPage}, but return the pinned frame. */
+    BufferFrame pinFrame(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        while (true) {
+            fetchPage(tid, pid, perm, true);
+            BufferFrame frame = frames.get(pid);
+            if (frame != null && frame.pin()) {
+                if (frame.getPage() != null) {
+                    return frame;
+                }
+                frame.unpin();  //页框刚被换出又重新读入 再来一次
+            }
+        }
+    }
+
+    /**
+     * Release a pin taken by {@link #pinPage}.
+     *
+     * @param pid the ID of the pinned page
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpinPage(PageId pid) {
+        BufferFrame frame = frames.get(pid);
+        if (frame == null) {
+            throw new IllegalStateException("page " + pid + " is not pinned");
+        }
+        frame.unpin();
+    }
+
+    /**
+     * Pin the frame of a page if the page is resident, without counting an
+     * access and without reading it in otherwise.  Used by bulk read scans,
+     * whose other pages come from a ScanRing.
+     *
+     * @return the pinned frame, or null if the page is not resident
+     */
+    BufferFrame pinResident(PageId pid) throws DbException {
+        BufferFrame frame = frames.get(pid);
+        if (frame == null || frame.awaitPage() == null || !frame.pin()) {
+            return null;
+        }
+        if (frame.getPage() == null) {
+            frame.unpin();
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Retrieve a page for a bulk read sequential scan.  A page that is
+     * already resident in the pool is returned from the pool; any other page
+     * is read into the next frame of the scan's ring and is not added to the
+     * pool, so the scan never displaces pages of other queries.  Neither case
+     * counts as an access for the replacement policy.  The page's frame in
+     * the ring is chosen by its page number, so the scan must read every
+     * page in order.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's private ring, or null to go through the pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+        BufferFrame frame = frames.get(pid);
+        if (frame != null) {
+            Page page = frame.awaitPage();
+            if (page != null) {
+                return page;
+            }
+        }
+        return readFromRing(pid, pid.getPageNumber(), ring);
+    }
+
+    private static DbFile databaseFile(PageId pid) throws DbException {
+        try {
+            return Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            throw new DbException("could not read page " + pid + ": " + e);
+        }
+    }
+
+    /** Read a page of a memory-mapped file, bypassing the pool entirely. */
+    private static Page readFrom(DbFile file, PageId pid) throws DbException {
+        Page page;
+        try {
+            page = file.readPage(pid);
+        } catch (RuntimeException e) {
+            throw new DbException("could not read page " + pid + ": " + e);
+        }
+        if (page == null) {
+            throw new DbException("could not read page " + pid);
+        }
+        return page;
+    }
+
+    /**
+     * Read a page into a scan's ring, bypassing the pool entirely.
+     *
+     * @param pos the position of the page in the scan
+     */
+    Page readFromRing(PageId pid, int pos, ScanRing ring) throws DbException {
+        Page page;
+        try {
+            page = ring.read(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid, pos);
+        } catch (RuntimeException e) {
+            throw new DbException("could not read page " + pid + ": " + e);
+        }
+        if (page == null) {
+            throw new DbException("could not read page " + pid);
+        }
+        return page;
+    }
+
+    /**
+     * Read a page ahead of a sequential scan.  If the scan reads through a
+     * ring the page is loaded into the ring, otherwise it is added to the
+     * pool.  Nothing happens if the page is already resident.  No locks are
+     * acquired, and the scan's first request for a prefetched page is not
+     * reported to the replacement policy as a hit.
+     *
+     * @param pid the ID of the page to read
+     * @param pos the position of the page in the scan, which picks its
+     *            frame in the ring
+     * @param ring the scan's private ring, or null
+     * @see ReadAhead
+     */
+    void prefetchPage(PageId pid, int pos, ScanRing ring) throws DbException {
+        if (frames.containsKey(pid)) {
+            return;
+        }
+        if (ring != null) {
+            ring.load(Database.getCatalog().getDatabaseFile(pid.getTableId()), pid, pos);
+            return;
+        }
+        BufferFrame mine = new BufferFrame(pid);
+        mine.prefetched = true;
+        mine.latch.writeLock().lock();
+        if (frames.putIfAbsent(pid, mine) == null) {
+            loadPage(mine);
+        } else {
+            mine.latch.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read a run of pages ahead of a sequential scan, like
+     * {@link #prefetchPage} does for one page, with one
+     * {@link DbFile#readPages} call for the pages that go into the pool.
+     *
+     * @param pids the IDs of the pages to read, in scan order
+     * @param first the position in the scan of the first of them
+     * @param ring the scan's private ring, or null
+     */
+    void prefetchPages(List<PageId> pids, int first, ScanRing ring) throws DbException {
+        if (ring != null) {
+            for (int i = 0; i < pids.size(); i++) {
+                prefetchPage(pids.get(i), first + i, ring);
+            }
+            return;
+        }
+        installPages(pids, true, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Save the ids of the resident pages with the most hits, hottest first.
+     *
+     * @param f the file to write; it is replaced once the new list is complete
+     * @param maxPages the most pages to save
+     * @see #loadHotPages
+     */
+    public void saveHotPages(File f, int maxPages) throws IOException {
+        List<BufferFrame> resident = new ArrayList<BufferFrame>();
+        for (BufferFrame frame : frames.values()) {
+            if (frame.getPage() != null) {
+                resident.add(frame);
+            }
+        }
+        resident.sort((a, b) -> Integer.compare(b.hits, a.hits));
+        List<PageId> hot = new ArrayList<PageId>();
+        for (BufferFrame frame : resident.subList(0, Math.min(maxPages, resident.size()))) {
+            hot.add(frame.pid);
+        }
+        HotPageList.write(f, hot);
+    }
+
+    /**
+     * Read the pages of a list written by {@link #saveHotPages} into the
+     * pool, in the calling thread.  Only as many pages as fit in the pool are
+     * read, hottest first, and they are read in page-number order, so each
+     * table is read front to back, with one read per run of consecutive
+     * pages.  Pages of tables that are not in the
+     * catalog, and pages that cannot be read, are skipped.
+     *
+     * @param f the hot page list
+     * @return the number of pages read
+     * @throws IOException if the list cannot be read
+     */
+    public int loadHotPages(File f) throws IOException {
+        List<PageId> hot = new ArrayList<PageId>();
+        for (PageId pid : HotPageList.read(f)) {
+            if (hot.size() == PAGES_NUM) {
+                break;
+            }
+            try {
+                Database.getCatalog().getDatabaseFile(pid.getTableId());
+                hot.add(pid);
+            } catch (NoSuchElementException e) {
+                //这个表已经不在catalog里了
+            }
+        }
+        hot.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::getPageNumber));
+        int loaded = 0;
+        int start = 0;
+        while (start < hot.size()) {
+            //同一个表里页号连续的页一起读
+            int end = start + 1;
+            while (end < hot.size() && end - start < ReadAhead.MAX_EXTENT
+                    && hot.get(end).getTableId() == hot.get(start).getTableId()
+                    && hot.get(end).getPageNumber() == hot.get(end - 1).getPageNumber() + 1) {
+                end++;
+            }
+            try {
+                loaded += installPages(hot.subList(start, end), true, Permissions.READ_ONLY).size();
+            } catch (DbException e) {
+                //读不到的页就不预热了
+            }
+            start = end;
+        }
+        return loaded;
+    }
+
+    /**
+     * Start {@link #loadHotPages} on a background thread, so the pool warms
+     * up while queries are already running.  Does nothing if f does not
+     * exist.
+     *
+     * @return the thread, or null if there is nothing to load
+     */
+    public Thread warmUp(final File f) {
+        if (!f.exists()) {
+            return null;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                loadHotPages(f);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "simpledb-warm-up");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Read the page of a frame that the calling thread has just put into the
+     * page table, making room for it first.  The caller holds the frame's
+     * write latch, which is released here.
+     */
+    private Page loadPage(BufferFrame frame) throws DbException {
+        loadPages(Collections.singletonList(frame));
+        return frame.getPage();
+    }
+
+    /**
+     * Read the pages of frames that the calling thread has just put into the
+     * page table, making room for them first, with one call to
+     * {@link DbFile#readPages} per table.  Room for the first page is made
+     * like for any single page; later pages are only taken on as long as
+     * room can be made without waiting for other loads, and the frames of
+     * the rest are given up, so a batch never waits for itself.  The caller
+     * holds the write latches of all frames, which are released here.
+     *
+     * @return the frames whose pages were read
+     * @throws DbException if no room could be made for the first page, or
+     *         a page could not be read
+     */
+    private List<BufferFrame> loadPages(List<BufferFrame> batch) throws DbException {
+        List<BufferFrame> reserved = new ArrayList<BufferFrame>(batch.size());
+        try {
+            evictionLock.lock();
+            try {
+                drainAccesses();
+                for (BufferFrame frame : batch) {
+                    BufferPartition part = partitionOf(frame.pid.getTableId());
+                    //如果缓存池或者分区已经满了 先换出一页
+                    boolean room = true;
+                    while (room && (residentCount >= PAGES_NUM || part.resident >= part.maxPages)) {
+                        if (reserved.isEmpty()) {
+                            if (!makeRoom(part)) {
+                                loadDone.awaitUninterruptibly();
+                            }
+                        } else {
+                            try {
+                                room = makeRoom(part);
+                            } catch (DbException e) {
+                                room = false;
+                            }
+                        }
+                    }
+                    if (!room) {
+                        break;
+                    }
+                    residentCount++;
+                    loadingCount++;
+                    part.resident++;
+                    frame.partition = part;
+                    part.policy.pageAdded(frame.pid);
+                    reserved.add(frame);
+                    if (arena != null) {
+                        frame.arenaFrame = arena.allocate();
+                    }
+                }
+                checkCleanPages();
+            } finally {
+                evictionLock.unlock();
+            }
+            //没有预留到位置的页框直接放弃 等待它们的线程会重新查找
+            for (BufferFrame frame : batch.subList(reserved.size(), batch.size())) {
+                frames.remove(frame.pid, frame);
+                frame.latch.writeLock().unlock();
+            }
+
+            int start = 0;
+            while (start < reserved.size()) {
+                int tableId = reserved.get(start).pid.getTableId();
+                int end = start + 1;
+                while (end < reserved.size() && reserved.get(end).pid.getTableId() == tableId) {
+                    end++;
+                }
+                readPages(reserved.subList(start, end));
+                start = end;
+            }
+            return reserved;
+        } catch (DbException e) {
+            for (BufferFrame frame : batch) {
+                if (frame.latch.isWriteLockedByCurrentThread() && frame.getPage() == null) {
+                    frame.fail(e);
+                    frames.remove(frame.pid, frame);
+                }
+            }
+            throw e;
+        } finally {
+            for (BufferFrame frame : batch) {
+                if (frame.latch.isWriteLockedByCurrentThread()) {
+                    frame.latch.writeLock().unlock();
+                }
+            }
+            if (!reserved.isEmpty()) {
+                evictionLock.lock();
+                try {
+                    for (BufferFrame frame : reserved) {
+                        loadingCount--;
+                        if (frame.getPage() == null) {
+                            residentCount--;
+                            frame.partition.resident--;
+                            frame.partition.policy.pageRemoved(frame.pid);
+                            releaseFrame(frame);
+                        }
+                    }
+                    loadDone.signalAll();
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+        }
+    }
+
+    // read the pages of reserved frames of one table and install them
+    private void readPages(List<BufferFrame> run) throws DbException {
+        PageId first = run.get(0).pid;
+        List<Page> pages;
+        try {
+            DbFile dbFile = Database.getCatalog().getDatabaseFile(first.getTableId());
+            if (run.size() == 1) {
+                BufferFrame frame = run.get(0);
+                Page page = frame.arenaFrame >= 0
+                        ? dbFile.readPageInto(first, arena.frame(frame.arenaFrame))
+                        : dbFile.readPage(first);
+                pages = Collections.singletonList(page);
+            } else {
+                List<PageId> pids = new ArrayList<PageId>(run.size());
+                for (BufferFrame frame : run) {
+                    pids.add(frame.pid);
+                }
+                if (arena != null) {
+                    ByteBuffer[] bufs = new ByteBuffer[run.size()];
+                    for (int i = 0; i < bufs.length; i++) {
+                        bufs[i] = arena.frame(run.get(i).arenaFrame);
+                    }
+                    pages = dbFile.readPagesInto(pids, bufs);
+                } else {
+                    pages = dbFile.readPages(pids);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new DbException("could not read page " + first + ": " + e);
+        }
+        for (int i = 0; i < run.size(); i++) {
+            Page page = pages.get(i);
+            if (page == null) {
+                throw new DbException("could not read page " + run.get(i).pid);
+            }
+            run.get(i).setPage(page);
+        }
+    }
+
+    // wake the writer if too few pages can be evicted without a write
+    private void checkCleanPages() {
+        if (PAGES_NUM - writer.pendingPages() < cleanLowWatermark) {
+            writer.wakeUp();
+        }
+    }
+
+    private void recordAccess(PageId pid) {
+        if (!accesses.offer(pid) && evictionLock.tryLock()) {
+            try {
+                drainAccesses();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    // caller holds evictionLock
+    private void drainAccesses() {
+        accesses.drainTo(pid -> {
+            BufferFrame frame = frames.get(pid);
+            if (frame != null && frame.partition != null) {
+                frame.partition.policy.pageAccessed(pid);
+            }
+        });
+    }
+
+    // caller holds evictionLock
+    private void releaseFrame(BufferFrame frame) {
+        if (frame.arenaFrame >= 0) {
+            //页框要给别的页用了 还没解码的元组先拷出来
+            if (frame.getPage() instanceof HeapPage) {
+                ((HeapPage) frame.getPage()).detachFrame();
+            }
+            arena.release(frame.arenaFrame);
+            frame.arenaFrame = -1;
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -142,12 +1014,69 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Set<Integer> appended = appendedTables.remove(tid);
+        if (appended != null) {
+            //绕过缓存池追加的页: 提交前刷到盘上 回滚时清空
+            for (int tableId : appended) {
+                Database.getCatalog().getDatabaseFile(tableId).transactionComplete(tid, commit);
+            }
+        }
+        List<Page> dirtied = pagesDirtiedBy(tid);
+        if (commit) {
+            if (!dirtied.isEmpty()) {
+                //先把修改写进日志并刷盘 再交给后台写线程 (WAL)
+                synchronized (this) {
+                    LogFile log = Database.getLogFile();
+                    for (Page p : dirtied) {
+                        log.logWrite(tid, p.getBeforeImage(), p);
+                        p.setBeforeImage();
+                    }
+                    log.force();
+                }
+                for (Page p : dirtied) {
+                    writer.enqueue(p.getId(), tid);
+                }
+                checkCleanPages();
+            }
+        } else {
+            //回滚: 换回上一次提交时的页
+            for (Page p : dirtied) {
+                BufferFrame frame = frames.get(p.getId());
+                if (frame == null) {
+                    continue;
+                }
+                Page before = p.getBeforeImage();
+                TransactionId committed = writer.committedBy(p.getId());
+                if (committed != null) {
+                    before.markDirty(true, committed);  //上一次提交的修改还没写回
+                }
+                frame.latch.writeLock().lock();
+                try {
+                    if (frame.getPage() == p) {
+                        frame.setPage(before);
+                    }
+                } finally {
+                    frame.latch.writeLock().unlock();
+                }
+                Database.getCatalog().getDatabaseFile(p.getId().getTableId()).pageRolledBack(before);
+            }
+        }
 
 	// After dealing with commit/abort actions, ask lock manager to release locks
 	//lockmgr.releaseAllLocks(tid); // Uncomment for Lab 4
 
     }
 
+    /**
+     * Note that tid appended pages to a table without going through the
+     * pool, so the table's file is told when tid commits or aborts.
+     *
+     * @see DbFile#transactionComplete
+     */
+    void appendedTo(TransactionId tid, int tableId) {
+        appendedTables.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(tableId);
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other 
@@ -167,6 +1096,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        markDirty(tid, file.insertTuple(tid, t));
     }
 
     /**
@@ -186,6 +1117,20 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple is not stored in any table");
+        }
+        DbFile file = databaseFile(t.getRecordId().getPageId());
+        markDirty(tid, file.deleteTuple(tid, t));
+    }
+
+    //DbFile修改的是缓存池里的页 (修改时钉住 不会被换出) 这里只需标记为脏
+    private void markDirty(TransactionId tid, List<Page> pages) {
+        for (Page p : pages) {
+            synchronized (p) {
+                p.markDirty(true, tid);
+            }
+        }
     }
 
     /**
@@ -196,7 +1141,14 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        List<Page> dirty = new ArrayList<Page>();
+        for (BufferFrame frame : frames.values()) {
+            Page p = frame.getPage();
+            if (p != null && p.isDirty() != null) {
+                dirty.add(p);
+            }
+        }
+        flush(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -206,7 +1158,19 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-        // not necessary for labs 1--4
+        evictionLock.lock();
+        try {
+            BufferFrame frame = frames.get(pid);
+            if (frame != null && frame.getPage() != null && frames.remove(pid, frame)) {
+                writer.forget(pid);
+                residentCount--;
+                frame.partition.resident--;
+                frame.partition.policy.pageRemoved(pid);
+                releaseFrame(frame);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     /**
@@ -217,6 +1181,11 @@ public class BufferPool {
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        BufferFrame frame = frames.get(pid);
+        Page p = frame == null ? null : frame.getPage();
+        if (p != null && p.isDirty() != null) {
+            flush(Collections.singletonList(p));
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -224,15 +1193,133 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for labs 1--4
+        flush(pagesDirtiedBy(tid));
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Write dirty pages in the caller's thread.  Pages of transactions that
+     * have not committed are logged first; the log is forced before any page
+     * is written.  The caller holds the pool monitor, which must be taken
+     * before the log's.
      */
-    private synchronized void evictPage() throws DbException {
+    private void flush(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        for (Page p : pages) {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier != null && !writer.isCommitted(p.getId(), dirtier)) {
+                log.logWrite(dirtier, p.getBeforeImage(), p);
+            }
+        }
+        log.force();
+        writer.write(pages);
+    }
+
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        List<Page> dirtied = new ArrayList<Page>();
+        for (BufferFrame frame : frames.values()) {
+            Page p = frame.getPage();
+            if (p != null && tid.equals(p.isDirty())) {
+                dirtied.add(p);
+            }
+        }
+        return dirtied;
+    }
+
+    /**
+     * Make room for one more page of the given partition by evicting a page.
+     * A partition below its maximum takes a page from the partition that is
+     * furthest above its minimum, so it can grow while others hold more
+     * than they are guaranteed; otherwise, or if none of those pages can
+     * go, it recycles one of its own.  The caller must hold the eviction
+     * lock.
+     *
+     * @return false if nothing can be evicted until a page that is being
+     *         read in has arrived
+     * @throws DbException if every page that could make room is dirty or pinned
+     */
+    private boolean makeRoom(BufferPartition part) throws DbException {
+        if (part.resident < part.maxPages) {
+            //还没到上限 先从超出最小配额最多的分区拿一页
+            List<BufferPartition> others = new ArrayList<BufferPartition>(partitions.values());
+            others.sort((a, b) -> b.excess() - a.excess());
+            for (BufferPartition p : others) {
+                if (p != part && p.excess() > 0 && evictPage(p, true)) {
+                    return true;
+                }
+            }
+        }
+        if (part.resident > 0 && evictPage(part, true)) {
+            return true;
+        }
+        if (loadingCount > 0) {
+            return false;   //正在读入的页很快就可以换出了
+        }
+        throw new DbException("all pages in the buffer pool are dirty or pinned, cannot evict");
+    }
+
+    /**
+     * Discards a page of a partition from the buffer pool, chosen by the
+     * partition's replacement policy.  Clean pages are preferred.  Pages
+     * dirtied by transactions that are still running are never evicted (NO
+     * STEAL); if only committed pages that the background writer has not
+     * written yet can go, one of them is written synchronously first, if the
+     * caller allows it.
+     *
+     * Frames that are being loaded, latched by another thread or pinned are
+     * skipped as well.  The caller must hold the eviction lock; this method
+     * is not synchronized on the pool so that a loading thread never waits
+     * for the pool monitor while it holds the eviction lock.
+     *
+     * @param write whether a committed page may be written to make room
+     * @return false if the partition has no page that can be evicted
+     * @throws DbException if a committed page could not be written
+     */
+    private boolean evictPage(BufferPartition part, boolean write) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        EvictionPolicy policy = part.policy;
+        PageId victim = policy.chooseVictim(pid -> {
+            BufferFrame f = frames.get(pid);
+            return f != null && f.isIdle() && f.getPage().isDirty() == null;
+        });
+        if (victim == null && write) {
+            //没有干净页了 叫醒后台写线程 这一次只能同步写出一个已提交的页
+            writer.wakeUp();
+            victim = policy.chooseVictim(pid -> {
+                BufferFrame f = frames.get(pid);
+                if (f == null || !f.isIdle()) {
+                    return false;
+                }
+                TransactionId dirtier = f.getPage().isDirty();
+                return dirtier == null || writer.isCommitted(pid, dirtier);
+            });
+        }
+        if (victim == null) {
+            return false;
+        }
+        BufferFrame frame = frames.get(victim);
+        if (frame.getPage().isDirty() != null) {
+            try {
+                writer.writeCommitted(Collections.singletonList(frame.getPage()));
+            } catch (IOException e) {
+                policy.victimKept(victim);
+                throw new DbException("could not write page " + victim + ": " + e);
+            }
+            if (frame.getPage().isDirty() != null) {
+                policy.victimKept(victim);   //又被修改了 换别的页
+                return true;
+            }
+        }
+        if (!frame.retire()) {
+            policy.victimKept(victim);   //刚刚被pin住了 换别的页
+            return true;
+        }
+        releaseFrame(frames.remove(victim));
+        residentCount--;
+        part.resident--;
+        return true;
     }
 
 }
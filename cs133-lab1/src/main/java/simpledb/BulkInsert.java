@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BulkInsert reads the tuples of its child and appends them to a table in
+ * full pages, built privately and written with
+ * {@link HeapFile#appendPages}, instead of inserting them one at a time
+ * through the BufferPool.  Only one small log record is written per batch
+ * of pages, so loading a large table runs at about the speed of the disk.
+ * <p>
+ * The tuples never go on the free space of the table's existing pages.
+ * Like an insert, the operator returns a single tuple with one integer
+ * field, the number of tuples inserted.
+ * <p>
+ * It implements DbIterator directly rather than extending Operator like
+ * the Insert operator of the later labs: Operator and Insert are only part
+ * of the lab2 sources, and this class lives next to HeapFile, which lab1
+ * builds and tests on its own.
+ */
+public class BulkInsert implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Pages built before they are appended to the table. */
+    static final int BATCH_PAGES = 64;
+
+    private final TransactionId tid;
+    private final DbIterator child;
+    private final int tableId;
+    private final TupleDesc countDesc = new TupleDesc(new Type[] { Type.INT_TYPE });
+    //已经返回过插入的个数
+    private boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableId
+     *            The table in which to insert tuples.
+     * @throws DbException
+     *             if the table is not stored in a HeapFile or its TupleDesc
+     *             differs from that of the child
+     */
+    public BulkInsert(TransactionId t, DbIterator child, int tableId) throws DbException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new DbException("bulk insert needs a heap file");
+        }
+        if (!file.getTupleDesc().equals(child.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        this.tid = t;
+        this.child = child;
+        this.tableId = tableId;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return countDesc;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        done = false;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return !done;
+    }
+
+    /**
+     * Inserts all the tuples read from the child on the first call.
+     *
+     * @return a 1-field tuple containing the number of inserted records
+     */
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (done) {
+            throw new NoSuchElementException("no more tuples");
+        }
+        done = true;
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int count = 0;
+        try {
+            List<TuplePage> batch = new ArrayList<TuplePage>();
+            TuplePage page = null;
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (page == null || !page.hasRoomFor(t)) {
+                    if (page != null) {
+                        batch.add(page);
+                    }
+                    if (batch.size() == BATCH_PAGES) {
+                        file.appendPages(tid, batch);
+                        batch.clear();
+                    }
+                    //页号在追加时才定下来 appendPages会改正元组的record id
+                    page = file.getPageFormat().decode(new HeapPageId(tableId, 0),
+                            HeapPage.createEmptyPageData(), 0);
+                    if (!page.hasRoomFor(t)) {
+                        throw new DbException("tuple " + t + " does not fit on a page");
+                    }
+                }
+                page.insertTuple(t);
+                count++;
+            }
+            if (page != null) {
+                batch.add(page);
+            }
+            file.appendPages(tid, batch);
+        } catch (IOException e) {
+            throw new DbException("bulk insert failed: " + e);
+        }
+        Tuple result = new Tuple(countDesc);
+        result.setField(0, new IntField(count));
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        done = false;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
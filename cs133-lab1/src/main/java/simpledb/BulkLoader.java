@@ -0,0 +1,362 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * BulkLoader writes a new heap file, in the format of {@link HeapPage}, from
+ * a stream of tuples or from a text file with one delimited row per line.
+ * <p>
+ * The input is cut into chunks, of whole lines or of a run of tuples, and
+ * each chunk is parsed and encoded into fixed-size records by a task on a
+ * fork-join pool while the next chunks are read.  The records of the
+ * chunks are then packed into pages in input order and written with large
+ * sequential writes, so the rows of the file keep the order of the input.
+ * At most a few chunks per worker are in memory at once, however large the
+ * input is.
+ * <p>
+ * Only the last page of the file may have free slots.  An empty input gives
+ * a file with a single empty page.
+ *
+ * @see HeapFileEncoder
+ */
+public class BulkLoader {
+
+    /** Bytes of text parsed by one task. */
+    static final int CHUNK_BYTES = 4 << 20;
+    /** Tuples encoded by one task. */
+    static final int CHUNK_TUPLES = 16384;
+    /** Pages written with one call. */
+    static final int WRITE_PAGES = 64;
+
+    private final Type[] types;
+    private final int pageSize;
+    private final byte separator;
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    private final int recordBytes;
+    private final int recordsPerPage;
+    private final int headerBytes;
+
+    /**
+     * Create a loader for tuples of the given types that runs its tasks on
+     * the common fork-join pool.
+     *
+     * @param types the types of the fields of each tuple
+     * @param pageSize the number of bytes per page of the output file
+     * @param separator the character between the fields of a line of text
+     */
+    public BulkLoader(Type[] types, int pageSize, char separator) {
+        this(types, pageSize, separator, ForkJoinPool.commonPool(), CHUNK_BYTES);
+    }
+
+    BulkLoader(Type[] types, int pageSize, char separator, ForkJoinPool pool, int chunkBytes) {
+        this.types = types.clone();
+        this.pageSize = pageSize;
+        this.separator = (byte) separator;
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+        int bytes = 0;
+        for (Type t : types)
+            bytes += t.getSizeInBytes();
+        this.recordBytes = bytes;
+        this.recordsPerPage = (pageSize * 8) / (recordBytes * 8 + 1);
+        this.headerBytes = (recordsPerPage + 7) / 8;
+    }
+
+    /** The records of one chunk of input, in input order. */
+    private static final class Records {
+        final byte[] data;
+        final int count;
+
+        Records(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Convert a text file to a heap file.  Each line of in holds the fields
+     * of one tuple, separated by the separator character.  Fields are
+     * trimmed, strings longer than {@link Type#STRING_LEN} bytes are cut
+     * short, and blank lines and carriage returns are ignored.
+     *
+     * @return the number of pages written
+     * @throws IOException if in can't be read, out can't be written, or a
+     *         line of in is malformed
+     */
+    public int load(File in, File out) throws IOException {
+        try (InputStream is = new FileInputStream(in); PageWriter writer = new PageWriter(out)) {
+            Pipeline pipeline = new Pipeline(writer);
+            byte[] buf = new byte[chunkBytes];
+            int len = 0;
+            while (true) {
+                int n = is.read(buf, len, buf.length - len);
+                if (n < 0) {
+                    if (len > 0)
+                        pipeline.submit(parse(buf, len));
+                    break;
+                }
+                len += n;
+                if (len < buf.length)
+                    continue;
+                //只交出完整的行 剩下半行留给下一块
+                int end = len;
+                while (end > 0 && buf[end - 1] != '\n')
+                    end--;
+                if (end == 0) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                    continue;
+                }
+                //剩下的半行可能比一块还长(块为了一长行扩大过)
+                byte[] next = new byte[Math.max(chunkBytes, len - end)];
+                System.arraycopy(buf, end, next, 0, len - end);
+                pipeline.submit(parse(buf, end));
+                buf = next;
+                len -= end;
+            }
+            pipeline.drain();
+            return writer.finish();
+        }
+    }
+
+    /**
+     * Write the tuples to a heap file, in order.
+     *
+     * @return the number of pages written
+     * @throws IOException if out can't be written
+     * @throws IllegalArgumentException if a tuple does not have the types of
+     *         this loader
+     */
+    public int load(Iterator<Tuple> tuples, File out) throws IOException {
+        try (PageWriter writer = new PageWriter(out)) {
+            Pipeline pipeline = new Pipeline(writer);
+            while (tuples.hasNext()) {
+                Tuple[] chunk = new Tuple[CHUNK_TUPLES];
+                int n = 0;
+                while (n < chunk.length && tuples.hasNext())
+                    chunk[n++] = tuples.next();
+                pipeline.submit(encode(chunk, n));
+            }
+            pipeline.drain();
+            return writer.finish();
+        }
+    }
+
+    /** Keeps a bounded number of chunk tasks in flight and writes their records in order. */
+    private final class Pipeline {
+        private final PageWriter writer;
+        private final ArrayDeque<ForkJoinTask<Records>> inFlight = new ArrayDeque<ForkJoinTask<Records>>();
+        private final int maxInFlight = 2 * pool.getParallelism() + 1;
+
+        Pipeline(PageWriter writer) {
+            this.writer = writer;
+        }
+
+        void submit(Callable<Records> task) throws IOException {
+            inFlight.add(pool.submit(task));
+            while (inFlight.size() > maxInFlight)
+                writer.add(join(inFlight.poll()));
+        }
+
+        void drain() throws IOException {
+            while (!inFlight.isEmpty())
+                writer.add(join(inFlight.poll()));
+        }
+
+        private Records join(ForkJoinTask<Records> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("bulk load interrupted");
+            } catch (ExecutionException e) {
+                for (ForkJoinTask<Records> t : inFlight)
+                    t.cancel(false);
+                inFlight.clear();
+                //池会把任务抛出的受检异常包一层 找回原来的异常
+                Throwable cause = e.getCause();
+                while (!(cause instanceof IOException || cause instanceof IllegalArgumentException)
+                        && cause.getCause() != null)
+                    cause = cause.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private Callable<Records> parse(byte[] text, int len) {
+        return () -> {
+            //先按每行32字节估计记录数 不够再扩
+            ByteBuffer records = ByteBuffer.allocate(Math.max(1, len / 32) * recordBytes);
+            int count = 0;
+            int pos = 0;
+            while (pos < len) {
+                int eol = pos;
+                while (eol < len && text[eol] != '\n')
+                    eol++;
+                int end = eol;
+                if (end > pos && text[end - 1] == '\r')
+                    end--;
+                if (end > pos) {
+                    if (records.remaining() < recordBytes)
+                        records = grow(records);
+                    parseLine(text, pos, end, records);
+                    count++;
+                }
+                pos = eol + 1;
+            }
+            return new Records(records.array(), count);
+        };
+    }
+
+    private static ByteBuffer grow(ByteBuffer b) {
+        ByteBuffer bigger = ByteBuffer.allocate(b.capacity() * 2);
+        b.flip();
+        bigger.put(b);
+        return bigger;
+    }
+
+    // Encode the fields of text[start, end) into the next record of out.
+    private void parseLine(byte[] text, int start, int end, ByteBuffer out) throws IOException {
+        int pos = start;
+        for (int i = 0; i < types.length; i++) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && text[fieldEnd] != separator)
+                fieldEnd++;
+            if ((fieldEnd == end) != (i == types.length - 1))
+                throw malformed(text, start, end, "expected " + types.length + " fields");
+            int a = pos, b = fieldEnd;
+            while (a < b && (text[a] & 0xff) <= ' ')
+                a++;
+            while (b > a && (text[b - 1] & 0xff) <= ' ')
+                b--;
+            if (types[i] == Type.INT_TYPE) {
+                out.putInt(parseInt(text, a, b, start, end));
+            } else {
+                int n = Math.min(b - a, Type.STRING_LEN);
+                out.putInt(n);
+                out.put(text, a, n);
+                out.position(out.position() + Type.STRING_LEN - n);
+            }
+            pos = fieldEnd + 1;
+        }
+    }
+
+    private static int parseInt(byte[] text, int a, int b, int start, int end) throws IOException {
+        boolean negative = a < b && text[a] == '-';
+        int i = negative || a < b && text[a] == '+' ? a + 1 : a;
+        if (i == b)
+            throw malformed(text, start, end, "bad integer");
+        long v = 0;
+        for (; i < b; i++) {
+            int d = text[i] - '0';
+            if (d < 0 || d > 9)
+                throw malformed(text, start, end, "bad integer");
+            v = v * 10 + d;
+            if (v > 1L << 31)
+                throw malformed(text, start, end, "integer out of range");
+        }
+        v = negative ? -v : v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            throw malformed(text, start, end, "integer out of range");
+        return (int) v;
+    }
+
+    private static IOException malformed(byte[] text, int start, int end, String why) {
+        return new IOException("malformed line (" + why + "): " + new String(text, start, end - start));
+    }
+
+    private Callable<Records> encode(Tuple[] tuples, int n) {
+        return () -> {
+            ByteBuffer records = ByteBuffer.allocate(n * recordBytes);
+            for (int k = 0; k < n; k++) {
+                Tuple t = tuples[k];
+                if (t.getTupleDesc().numFields() != types.length)
+                    throw new IllegalArgumentException("tuple " + t + " does not have " + types.length + " fields");
+                for (int i = 0; i < types.length; i++) {
+                    Field f = t.getField(i);
+                    if (f == null || f.getType() != types[i])
+                        throw new IllegalArgumentException("field " + i + " of tuple " + t + " is not of type " + types[i]);
+                    if (f.getType() == Type.INT_TYPE) {
+                        records.putInt(((IntField) f).getValue());
+                        continue;
+                    }
+                    String s = ((StringField) f).getValue();
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    records.putInt(len);
+                    for (int c = 0; c < len; c++)
+                        records.put((byte) s.charAt(c));
+                    records.position(records.position() + Type.STRING_LEN - len);
+                }
+            }
+            return new Records(records.array(), n);
+        };
+    }
+
+    /** Packs records into pages and writes them to the output file in batches. */
+    private final class PageWriter implements Closeable {
+        private final FileChannel channel;
+        private final byte[] buf = new byte[WRITE_PAGES * pageSize];
+        //缓冲区里已经写满的页数
+        private int pages;
+        //当前页已有的记录数
+        private int slot;
+        private int written;
+
+        PageWriter(File out) throws IOException {
+            this.channel = new FileOutputStream(out).getChannel();
+        }
+
+        void add(Records r) throws IOException {
+            int off = 0;
+            for (int k = 0; k < r.count; k++) {
+                int page = pages * pageSize;
+                System.arraycopy(r.data, off, buf, page + headerBytes + slot * recordBytes, recordBytes);
+                buf[page + slot / 8] |= (byte) (1 << (slot % 8));
+                off += recordBytes;
+                if (++slot == recordsPerPage) {
+                    slot = 0;
+                    if (++pages == WRITE_PAGES)
+                        flush();
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(buf, 0, pages * pageSize);
+            while (b.hasRemaining())
+                channel.write(b);
+            Arrays.fill(buf, 0, pages * pageSize, (byte) 0);
+            written += pages;
+            pages = 0;
+        }
+
+        /** Write out the last page and return the number of pages in the file. */
+        int finish() throws IOException {
+            if (slot > 0 || written + pages == 0) {
+                slot = 0;
+                pages++;
+            }
+            flush();
+            channel.force(false);
+            return written;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -25,6 +25,9 @@ public class Catalog {
 
     private HashMap<String, Integer> name2id;
 
+    //表所属的缓存池分区 没有设置的表属于BufferPool.DEFAULT_PARTITION
+    private ConcurrentHashMap<Integer, String> id2partition;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -35,6 +38,7 @@ public class Catalog {
         id2pkey = new HashMap<>();
         id2name = new HashMap<>();
         name2id = new HashMap<>();
+        id2partition = new ConcurrentHashMap<>();
     }
 
     /**
@@ -55,6 +59,7 @@ public class Catalog {
             id2file.remove(tableIdOld);
             id2name.remove(tableIdOld);
             id2pkey.remove(tableIdOld);
+            id2partition.remove(tableIdOld);
             name2id.remove(tableIdOld);
         }
         id2file.put(tableId, file);
@@ -130,6 +135,31 @@ public class Catalog {
         return key;
     }
 
+    /**
+     * Assign a table to a partition of the buffer pool.  The partition must
+     * also be added to the BufferPool with {@link BufferPool#addPartition};
+     * until it is, the table's pages go to the default partition.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     * @param partition the name of the partition
+     */
+    public void setPartition(int tableid, String partition) {
+        if (partition == null || partition.equals(BufferPool.DEFAULT_PARTITION))
+            id2partition.remove(tableid);
+        else
+            id2partition.put(tableid, partition);
+    }
+
+    /**
+     * @return the name of the buffer pool partition of the specified table;
+     *     tables that were never assigned, and unknown tables, belong to
+     *     {@link BufferPool#DEFAULT_PARTITION}
+     */
+    public String getPartition(int tableid) {
+        return id2partition.getOrDefault(tableid, BufferPool.DEFAULT_PARTITION);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return id2name.keySet().iterator();
@@ -152,10 +182,24 @@ public class Catalog {
         id2pkey.clear();
         id2file.clear();
         name2id.clear();
+        id2partition.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form {@code name (field type [pk], ...) [option=value ...]}.
+     * The options are {@code partition=<name>}, the buffer pool partition of
+     * the table, {@code mapped=true}, which memory-maps the table's heap
+     * file (see {@link HeapFile#isMemoryMapped()}), and
+     * {@code segments=<dir>[,<dir>...]}, the directories that hold the
+     * table's segment files after the first (see {@link SegmentedFile}), and
+     * {@code format=heap|slotted}, the {@link PageFormat} of the table's
+     * pages.  {@code storage=columnar} stores the table in a
+     * {@link ColumnarFile} instead of a HeapFile, and {@code storage=btree}
+     * in a {@link BTreeFile} sorted on the table's primary key; the other
+     * options then do not apply.  Once all tables are
+     * added, the buffer pool starts warming up from the hot page list saved
+     * at the last shutdown.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -193,13 +237,66 @@ public class Catalog {
                         }
                     }
                 }
+                //括号后面是 key=value 形式的表选项
+                String partition = null;
+                boolean mapped = false;
+                PageFormat format = PageFormat.HEAP;
+                String storage = "row";
+                File[] segmentDirs = new File[0];
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (!options.isEmpty()) {
+                    for (String opt : options.split("\\s+")) {
+                        String[] kv = opt.split("=", 2);
+                        if (kv.length == 2 && kv[0].equals("partition"))
+                            partition = kv[1];
+                        else if (kv.length == 2 && kv[0].equals("mapped"))
+                            mapped = Boolean.parseBoolean(kv[1]);
+                        else if (kv.length == 2 && kv[0].equals("format")) {
+                            try {
+                                format = PageFormat.valueOf(kv[1].toUpperCase());
+                            } catch (IllegalArgumentException e) {
+                                System.out.println("Unknown page format " + kv[1]);
+                                System.exit(0);
+                            }
+                        } else if (kv.length == 2 && kv[0].equals("storage")
+                                && (kv[1].equals("row") || kv[1].equals("columnar") || kv[1].equals("btree"))) {
+                            storage = kv[1];
+                        } else if (kv.length == 2 && kv[0].equals("segments")) {
+                            String[] dirs = kv[1].split(",");
+                            segmentDirs = new File[dirs.length];
+                            for (int i = 0; i < dirs.length; i++) {
+                                File dir = new File(dirs[i]);
+                                segmentDirs[i] = dir.isAbsolute() ? dir : new File(baseFolder, dirs[i]);
+                            }
+                        } else {
+                            System.out.println("Unknown table option " + opt);
+                            System.exit(0);
+                        }
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.equals("columnar")) {
+                    tabHf = new ColumnarFile(tableFile, t);
+                } else if (storage.equals("btree")) {
+                    if (primaryKey.isEmpty()) {
+                        System.out.println("Table " + name + " needs a pk field to be stored in a b+tree");
+                        System.exit(0);
+                    }
+                    tabHf = new BTreeFile(tableFile, t, t.fieldNameToIndex(primaryKey));
+                } else {
+                    tabHf = new HeapFile(tableFile, t, format, mapped, SegmentedFile.DEFAULT_SEGMENT_BYTES, segmentDirs);
+                }
                 addTable(tabHf,name,primaryKey);
+                if (partition != null)
+                    setPartition(tabHf.getId(), partition);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            //表都加载好了 在后台把上次关闭前最热的页读回缓存池
+            Database.getBufferPool().warmUp(Database.getLogFile().hotPagesFile());
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
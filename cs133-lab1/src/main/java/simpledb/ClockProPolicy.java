@@ -0,0 +1,265 @@
+package simpledb;
+
+import java.util.HashMap;
+
+/**
+ * CLOCK-Pro replacement (Jiang, Chen and Zhang, USENIX 2005).
+ * <p>
+ * Resident pages are either hot or cold.  A newly read page starts out cold
+ * and in its "test period"; only a cold page that is referenced again while
+ * it is being tested is promoted to hot.  Eviction only ever takes cold
+ * pages, so pages touched once by a big sequential scan cycle through the
+ * small cold area and never push out the hot working set.
+ * <p>
+ * All pages live on one circular list that is swept by three hands:
+ * <ul>
+ * <li> HAND_cold looks for a cold page to evict,
+ * <li> HAND_hot turns unreferenced hot pages back into cold ones,
+ * <li> HAND_test ends the test period of cold pages and drops the
+ *      metadata of evicted (non-resident) pages that are still tested.
+ * </ul>
+ * The share of the pool given to cold pages adapts: it grows when an evicted
+ * page is read back in during its test period and shrinks when a test period
+ * expires without such a re-reference.
+ */
+public class ClockProPolicy implements EvictionPolicy {
+
+    private static class Node {
+        final PageId pid;
+        Node prev, next;
+        boolean hot;
+        boolean resident = true;
+        boolean referenced;
+        boolean test;
+
+        Node(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private int capacity;
+    private final HashMap<PageId, Node> nodes = new HashMap<>();
+    private Node handHot, handCold, handTest;
+
+    private int numHot = 0;
+    private int numResidentCold = 0;
+    private int numNonResident = 0;
+    //冷页面的目标数量 会随着访问模式自适应调整
+    private int coldTarget;
+
+    /**
+     * @param capacity the number of pages in the buffer pool
+     */
+    public ClockProPolicy(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.coldTarget = Math.max(1, capacity / 10);
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        coldTarget = Math.max(1, Math.min(coldTarget, capacity));
+    }
+
+    public void pageAdded(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n != null && n.resident) {
+            n.referenced = true;
+            return;
+        }
+        if (n != null) {
+            // re-read while still being tested: the cold area was too small
+            coldTarget = Math.min(coldTarget + 1, capacity);
+            unlink(n);
+            numNonResident--;
+            n.resident = true;
+            n.referenced = false;
+            n.test = false;
+            n.hot = true;
+            numHot++;
+            insertAtHead(n);
+            balanceHot();
+            return;
+        }
+        n = new Node(pid);
+        n.test = true;
+        nodes.put(pid, n);
+        insertAtHead(n);
+        numResidentCold++;
+    }
+
+    public void pageAccessed(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n != null && n.resident)
+            n.referenced = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Node n = nodes.remove(pid);
+        if (n == null)
+            return;
+        if (!n.resident)
+            numNonResident--;
+        else if (n.hot)
+            numHot--;
+        else
+            numResidentCold--;
+        unlink(n);
+    }
+
+    public PageId chooseVictim(java.util.function.Predicate<PageId> canEvict) {
+        int budget = 3 * nodes.size() + 3;
+        int coldSeen = 0;
+        while (budget-- > 0) {
+            // nothing cold left to look at: demote a hot page and try again
+            if (numResidentCold == 0 || coldSeen > numResidentCold) {
+                runHandHot();
+                coldSeen = 0;
+                continue;
+            }
+            Node n = handCold;
+            handCold = n.next;
+            if (n.hot || !n.resident)
+                continue;
+            coldSeen++;
+            if (n.referenced) {
+                n.referenced = false;
+                if (n.test) {
+                    n.test = false;
+                    n.hot = true;
+                    numResidentCold--;
+                    numHot++;
+                    moveToHead(n);
+                    balanceHot();
+                } else {
+                    n.test = true;
+                    moveToHead(n);
+                }
+                continue;
+            }
+            if (!canEvict.test(n.pid))
+                continue;
+
+            numResidentCold--;
+            n.resident = false;
+            if (n.test) {
+                // keep the metadata so a quick re-read is noticed
+                numNonResident++;
+                while (numNonResident > capacity)
+                    runHandTest();
+            } else {
+                nodes.remove(n.pid);
+                unlink(n);
+            }
+            return n.pid;
+        }
+        return null;
+    }
+
+    public void victimKept(PageId pid) {
+        Node n = nodes.get(pid);
+        if (n == null) {
+            // its test period was over: back as a plain cold page
+            n = new Node(pid);
+            nodes.put(pid, n);
+            insertAtHead(n);
+        } else if (n.resident) {
+            return;
+        } else {
+            numNonResident--;
+            n.resident = true;
+        }
+        //不算一次访问 也不调整冷页面的目标数量
+        numResidentCold++;
+    }
+
+    /** Demote hot pages until the hot area fits in what the cold target leaves. */
+    private void balanceHot() {
+        while (numHot > 0 && numHot > capacity - coldTarget)
+            runHandHot();
+    }
+
+    /**
+     * Advance HAND_hot until one hot page has been demoted.  Cold pages it
+     * passes end their test period.
+     */
+    private void runHandHot() {
+        int budget = 2 * nodes.size() + 2;
+        while (handHot != null && budget-- > 0) {
+            Node n = handHot;
+            handHot = n.next;
+            if (n.hot) {
+                if (n.referenced) {
+                    n.referenced = false;
+                    continue;
+                }
+                n.hot = false;
+                numHot--;
+                numResidentCold++;
+                return;
+            }
+            if (n.test)
+                endTest(n);
+        }
+    }
+
+    /** Advance HAND_test until the metadata of one non-resident page is dropped. */
+    private void runHandTest() {
+        int budget = nodes.size() + 1;
+        while (handTest != null && budget-- > 0) {
+            Node n = handTest;
+            handTest = n.next;
+            if (!n.hot && n.test && endTest(n))
+                return;
+        }
+    }
+
+    /** @return true if the node was non-resident and has been dropped */
+    private boolean endTest(Node n) {
+        n.test = false;
+        if (n.resident)
+            return false;
+        coldTarget = Math.max(1, coldTarget - 1);
+        numNonResident--;
+        nodes.remove(n.pid);
+        unlink(n);
+        return true;
+    }
+
+    // the list head is just behind HAND_hot, the last place it will get to
+    private void insertAtHead(Node n) {
+        if (handHot == null) {
+            n.prev = n.next = n;
+            handHot = handCold = handTest = n;
+            return;
+        }
+        Node after = handHot;
+        Node before = after.prev;
+        before.next = n;
+        n.prev = before;
+        n.next = after;
+        after.prev = n;
+    }
+
+    private void moveToHead(Node n) {
+        unlink(n);
+        insertAtHead(n);
+    }
+
+    private void unlink(Node n) {
+        if (n.next == n) {
+            handHot = handCold = handTest = null;
+        } else {
+            if (handHot == n) handHot = n.next;
+            if (handCold == n) handCold = n.next;
+            if (handTest == n) handTest = n.next;
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+        }
+        n.prev = n.next = null;
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of one column of a {@link ColumnarFile}: the values of that column
+ * for a run of consecutive rows, with statistics that let a scan skip the
+ * page without looking at its values.
+ * <p>
+ * The page starts with a header of three ints: the number of the page's
+ * first row in the table, the number of values on the page and the number
+ * of nulls among them.  If the page is not empty, the header is followed by
+ * the smallest and the largest value, and then by the values in row order.
+ * An int takes 4 bytes; a string takes an unsigned short length followed by
+ * that many bytes, at most {@link Type#STRING_LEN}.  An all-zero page is an
+ * empty page whose first row is row 0.
+ * <p>
+ * SimpleDB fields are never null, so the null count is always zero for now;
+ * it is part of the format so that statistics do not have to change once
+ * they can be.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnPage implements Page {
+
+    /** Size of the fixed part of the page header, in bytes. */
+    static final int HEADER_SIZE = 12;
+
+    final ColumnPageId pid;
+    final Type type;
+    private final int firstRow;
+    private final List<Field> values = new ArrayList<Field>();
+    private int nullCount;
+    private Field min;
+    private Field max;
+    //页面数据占用的字节数
+    private int usedBytes = HEADER_SIZE;
+
+    //before image 第一次修改前才保存 为null时就是页面现在的内容
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a page from {@link BufferPool#getPageSize()} bytes of data read
+     * from disk.  The type of the column is looked up in the catalog; this
+     * is the constructor the {@link Page} interface requires, which the
+     * recovery code uses to read pages back from the log.
+     *
+     * @throws IOException if the bytes are not a page of the column
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn()), data);
+    }
+
+    /**
+     * Create a page from {@link BufferPool#getPageSize()} bytes of data read
+     * from disk.  The bytes are not referenced after this returns.
+     *
+     * @param type the type of the column's values
+     * @throws IOException if the bytes are not a page of such a column
+     */
+    public ColumnPage(ColumnPageId id, Type type, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = type;
+        ByteBuffer page = ByteBuffer.wrap(data, 0, BufferPool.getPageSize());
+        try {
+            firstRow = page.getInt();
+            int count = page.getInt();
+            nullCount = page.getInt();
+            if (count > 0) {
+                min = readValue(page);
+                max = readValue(page);
+                usedBytes += valueSize(min) + valueSize(max);
+                for (int i = 0; i < count; i++) {
+                    Field f = readValue(page);
+                    values.add(f);
+                    usedBytes += valueSize(f);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("page " + id + " is not a page of a " + type + " column: " + e);
+        }
+    }
+
+    /** Create an empty page whose first value will be that of row firstRow. */
+    ColumnPage(ColumnPageId id, Type type, int firstRow) {
+        this.pid = id;
+        this.type = type;
+        this.firstRow = firstRow;
+    }
+
+    private Field readValue(ByteBuffer page) {
+        if (type == Type.INT_TYPE)
+            return new IntField(page.getInt());
+        int len = page.getShort() & 0xffff;
+        byte[] bs = new byte[len];
+        page.get(bs);
+        return new StringField(new String(bs), Type.STRING_LEN);
+    }
+
+    private static int valueSize(Field f) {
+        if (f.getType() == Type.INT_TYPE)
+            return 4;
+        return 2 + Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+    }
+
+    private static void writeValue(ByteBuffer page, Field f) {
+        if (f.getType() == Type.INT_TYPE) {
+            page.putInt(((IntField) f).getValue());
+            return;
+        }
+        String s = ((StringField) f).getValue();
+        int n = Math.min(s.length(), Type.STRING_LEN);
+        page.putShort((short) n);
+        for (int k = 0; k < n; k++)
+            page.put((byte) s.charAt(k));
+    }
+
+    /** @return the PageId associated with this page. */
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** @return the row number of the first value on this page */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /** @return the number of values on this page */
+    public int getNumValues() {
+        return values.size();
+    }
+
+    /** @return the number of nulls among the values on this page */
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /** @return the smallest value on this page, or null if it is empty */
+    public Field getMin() {
+        return min;
+    }
+
+    /** @return the largest value on this page, or null if it is empty */
+    public Field getMax() {
+        return max;
+    }
+
+    /** @return the value of row getFirstRow() + i */
+    public Field getValue(int i) {
+        return values.get(i);
+    }
+
+    /** @return true if {@link #addValue} would find room for f */
+    public boolean hasRoomFor(Field f) {
+        int need = valueSize(f);
+        //第一个值同时也是最小值和最大值
+        if (values.isEmpty())
+            need *= 3;
+        else if (f.compare(Predicate.Op.LESS_THAN, min) || f.compare(Predicate.Op.GREATER_THAN, max))
+            need += valueSize(f);
+        return usedBytes + need <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Append the value of the next row to this page.
+     *
+     * @throws DbException if the page has no room for it or it is not of the
+     *         column's type
+     */
+    public void addValue(Field f) throws DbException {
+        if (f.getType() != type)
+            throw new DbException("value " + f + " is not of type " + type);
+        if (!hasRoomFor(f))
+            throw new DbException("page has no room for the value");
+        captureBeforeImage();
+        if (values.isEmpty()) {
+            min = f;
+            max = f;
+            usedBytes += 2 * valueSize(f);
+        } else if (f.compare(Predicate.Op.LESS_THAN, min)) {
+            usedBytes += valueSize(f) - valueSize(min);
+            min = f;
+        } else if (f.compare(Predicate.Op.GREATER_THAN, max)) {
+            usedBytes += valueSize(f) - valueSize(max);
+            max = f;
+        }
+        values.add(f);
+        usedBytes += valueSize(f);
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.putInt(firstRow);
+        page.putInt(values.size());
+        page.putInt(nullCount);
+        if (!values.isEmpty()) {
+            writeValue(page, min);
+            writeValue(page, max);
+            for (Field f : values)
+                writeValue(page, f);
+        }
+        return data;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new ColumnPage(pid, type, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Copy-on-write: the before image is only taken when the page is first
+    // changed after it was read or committed.
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.util.Objects;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a table. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column, as an index into the table's TupleDesc
+     * @param pgNo The page number in that column's page chain.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column whose values are on this page */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the page chain of the column
+     *   getColumn() associated with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, column, pgNo);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId other = (ColumnPageId) o;
+        return tableId == other.tableId && column == other.column && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, column, pgNo };
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * ColumnarFile is an implementation of a DbFile that stores each column of
+ * a table in its own chain of {@link ColumnPage ColumnPages}, so a scan
+ * that needs only some of the columns reads and decodes only their pages.
+ * <p>
+ * The pages of column i are kept in a file named after the table's file,
+ * with the suffix {@code .col}i; the table's file itself is only used to
+ * name the table.  Rows are appended: the values of a new row go at the end
+ * of the last page of each column, and row n of the table is the n-th value
+ * of every column.  Each page records the number of its first row and the
+ * smallest and largest of its values.
+ * <p>
+ * Tuples cannot be deleted from a columnar table.
+ *
+ * @see ColumnPage
+ * @see SeqScan#SeqScan(TransactionId, int, String, int[])
+ */
+public class ColumnarFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final PageIO[] columns;
+
+    /**
+     * Constructs a columnar file for the table named by f.
+     *
+     * @param f
+     *            the file that names the table; the columns are stored next
+     *            to it
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.columns = new PageIO[td.numFields()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = new PageIO(columnFile(i));
+    }
+
+    /** @return the file that stores the pages of column i */
+    public File columnFile(int i) {
+        return new File(f.getPath() + ".col" + i);
+    }
+
+    /** @return the File that names this table */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnarFile, a hash of the
+     * absolute name of its file like {@link HeapFile#getId()}.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of pages of column i */
+    public int numPages(int column) {
+        return (int) (columns[column].length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != getId())
+            throw new IllegalArgumentException("page " + pid + " is not a page of this file");
+        ColumnPageId cpid = (ColumnPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        try {
+            columns[cpid.getColumn()].read((long) cpid.getPageNumber() * data.length, ByteBuffer.wrap(data));
+            return new ColumnPage(cpid, td.getFieldType(cpid.getColumn()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        columns[cpid.getColumn()].write((long) cpid.getPageNumber() * BufferPool.getPageSize(),
+                new ByteBuffer[] { ByteBuffer.wrap(page.getPageData()) });
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        RecordId rid = null;
+        for (int c = 0; c < columns.length; c++) {
+            Field value = t.getField(c);
+            int pgNo = Math.max(0, numPages(c) - 1);
+            if (numPages(c) == 0)
+                appendPage(c, 0, 0);
+            ColumnPageId pid = new ColumnPageId(getId(), c, pgNo);
+            ColumnPage page = (ColumnPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+            if (!page.hasRoomFor(value)) {
+                //这一页放不下了 接着它的最后一行开一页新的
+                int next = page.getFirstRow() + page.getNumValues();
+                pool.unpinPage(pid);
+                pid = new ColumnPageId(getId(), c, ++pgNo);
+                appendPage(c, pgNo, next);
+                page = (ColumnPage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+            }
+            try {
+                //和写回线程的编码互斥
+                synchronized (page) {
+                    if (c == 0)
+                        rid = new RecordId(pid, page.getNumValues());
+                    page.addValue(value);
+                    page.markDirty(true, tid);
+                }
+            } finally {
+                pool.unpinPage(pid);
+            }
+            dirtied.add(page);
+        }
+        t.setRecordId(rid);
+        return dirtied;
+    }
+
+    private void appendPage(int column, int pgNo, int firstRow) throws IOException {
+        writePage(new ColumnPage(new ColumnPageId(getId(), column, pgNo), td.getFieldType(column), firstRow));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("tuples cannot be deleted from a columnar table");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] all = new int[columns.length];
+        for (int i = 0; i < all.length; i++)
+            all[i] = i;
+        return iterator(tid, all);
+    }
+
+    /**
+     * Returns an iterator over the given columns of all the tuples stored in
+     * this file, reading only the pages of those columns.  The tuples have
+     * the schema {@link TupleDesc#project(int[]) td.project(columns)}.
+     *
+     * @param columns the columns to read, as indexes into the TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnIterator(tid, columns.clone());
+    }
+
+    /** Walks the page chains of the chosen columns side by side. */
+    private class ColumnIterator implements DbFileIterator {
+        private final TransactionId tid;
+        private final int[] cols;
+        private final TupleDesc projected;
+        private ColumnPage[] pages;
+        //每一列当前页中下一个值的位置
+        private int[] pos;
+
+        ColumnIterator(TransactionId tid, int[] cols) {
+            this.tid = tid;
+            this.cols = cols;
+            this.projected = td.project(cols);
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            pages = new ColumnPage[cols.length];
+            pos = new int[cols.length];
+            for (int i = 0; i < cols.length; i++)
+                pages[i] = numPages(cols[i]) == 0 ? null : page(cols[i], 0);
+        }
+
+        private ColumnPage page(int column, int pgNo) throws DbException, TransactionAbortedException {
+            return (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(getId(), column, pgNo), Permissions.READ_ONLY);
+        }
+
+        // Move column i on to the next page that has values left; false at the end.
+        private boolean advance(int i) throws DbException, TransactionAbortedException {
+            while (pages[i] != null && pos[i] >= pages[i].getNumValues()) {
+                int next = pages[i].getId().getPageNumber() + 1;
+                pages[i] = next < numPages(cols[i]) ? page(cols[i], next) : null;
+                pos[i] = 0;
+            }
+            return pages[i] != null;
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (pages == null)
+                throw new IllegalStateException("iterator is not open");
+            return cols.length > 0 && advance(0);
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            Tuple t = new Tuple(projected);
+            t.setRecordId(new RecordId(pages[0].getId(), pos[0]));
+            for (int i = 0; i < cols.length; i++) {
+                if (!advance(i))
+                    throw new DbException("column " + cols[i] + " has fewer rows than column " + cols[0]);
+                t.setField(i, pages[i].getValue(pos[i]++));
+            }
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            open();
+        }
+
+        @Override
+        public void close() {
+            pages = null;
+            pos = null;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +20,107 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into a buffer pool frame.  Used when
+     * the BufferPool keeps its frames off-heap; the returned page may keep
+     * using the frame for as long as it is resident.
+     * <p>
+     * The default implementation ignores the frame and simply calls
+     * {@link #readPage}.
+     *
+     * @param id the page to read
+     * @param frame a buffer of exactly {@link BufferPool#getPageSize()} bytes
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     * @see PageArena
+     */
+    public default Page readPageInto(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
+    /**
+     * Read several pages from disk.  Runs of pages with consecutive page
+     * numbers may be read with a single I/O.
+     * <p>
+     * The default implementation calls {@link #readPage} for each page.
+     *
+     * @param ids the pages to read, usually with consecutive page numbers
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    public default List<Page> readPages(List<PageId> ids) {
+        List<Page> pages = new ArrayList<Page>(ids.size());
+        for (PageId id : ids)
+            pages.add(readPage(id));
+        return pages;
+    }
+
+    /**
+     * Read several pages from disk into buffer pool frames, one frame per
+     * page, like {@link #readPages} does with {@link #readPageInto}.
+     * <p>
+     * The default implementation calls {@link #readPageInto} for each page.
+     *
+     * @param ids the pages to read, usually with consecutive page numbers
+     * @param frames buffers of exactly {@link BufferPool#getPageSize()}
+     *               bytes, one for each page
+     * @return the pages, in the order of ids
+     */
+    public default List<Page> readPagesInto(List<PageId> ids, ByteBuffer[] frames) {
+        List<Page> pages = new ArrayList<Page>(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+            pages.add(readPageInto(ids.get(i), frames[i]));
+        return pages;
+    }
+
+    /**
+     * Tell whether this file serves pages straight out of a memory mapping.
+     * Reading such a page costs no I/O and no copy, so the BufferPool does
+     * not cache clean pages of the file that are only read; it only keeps
+     * the pages that are written or pinned.
+     * <p>
+     * The default implementation returns false.
+     */
+    public default boolean isMemoryMapped() {
+        return false;
+    }
+
+    /**
+     * Called by the BufferPool when an aborted transaction's changes to a
+     * page of this file are rolled back, so the file can bring whatever it
+     * keeps about its pages in line with the restored page.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @param page the page as it was before the aborted transaction
+     */
+    public default void pageRolledBack(Page page) {
+    }
+
+    /**
+     * Called by the BufferPool when a transaction that appended pages to
+     * this file without going through the pool commits or aborts.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @see BufferPool#appendedTo
+     * @see HeapFile#appendPages
+     */
+    public default void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+    }
+
+    /**
+     * Called by the LogFile when it takes a checkpoint, after every dirty
+     * page has been written, so the file can save what it keeps in memory
+     * about its pages.  Nothing depends on this state being saved: a file
+     * must be able to rebuild it if it is missing or out of date.
+     * <p>
+     * The default implementation does nothing.
+     *
+     * @see HeapFile#checkpoint
+     */
+    public default void checkpoint() throws IOException {
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +130,22 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk.  The pages are sorted by page
+     * number, and an implementation may write a run of adjacent pages with a
+     * single I/O.
+     * <p>
+     * The default implementation calls {@link #writePage} for each page.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @throws IOException if a write fails
+     * @see BackgroundWriter
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
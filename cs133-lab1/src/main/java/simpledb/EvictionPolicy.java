@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool gives up when it
+ * needs a free frame for a page that is being read in.
+ * <p>
+ * The BufferPool reports every page it installs, every hit and every page it
+ * drops for other reasons; the policy only keeps bookkeeping about page ids
+ * and never touches the pages themselves.  Whether a particular page may be
+ * evicted at all (e.g. it is dirty) is decided by the BufferPool and passed
+ * in to {@link #chooseVictim}.
+ * <p>
+ * Implementations need not be thread-safe: the BufferPool only calls a
+ * policy while it holds its eviction lock.  Hits are batched up and reported
+ * shortly after they happen, and a few of them may be dropped under heavy
+ * contention.
+ *
+ * @see BufferPool
+ * @see ClockProPolicy
+ * @see LruKPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called after a page that was not resident has been read into the
+     * buffer pool.
+     *
+     * @param pid the id of the newly resident page
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool without being chosen by
+     * {@link #chooseVictim}, e.g. when the recovery manager discards it.
+     * The policy should forget everything it knows about the page.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick a resident page to evict.  The returned page is considered
+     * evicted as far as the policy is concerned; the caller must remove it
+     * from the buffer pool.
+     *
+     * @param canEvict tells whether a resident page may be evicted; pages it
+     *                 rejects must be skipped
+     * @return the id of the page to evict, or null if no resident page can
+     *         be evicted
+     */
+    public PageId chooseVictim(java.util.function.Predicate<PageId> canEvict);
+
+    /**
+     * Called when a page returned by {@link #chooseVictim} stays in the
+     * buffer pool after all, e.g. because it was pinned or dirtied again
+     * before it could be removed.  The page is resident again, as it was
+     * before it was chosen; this is not a reference to the page.
+     *
+     * @param pid the id of the page that was chosen but not evicted
+     */
+    public void victimKept(PageId pid);
+
+    /**
+     * Called when the buffer pool (or partition) this policy works for is
+     * resized.  Policies that size their bookkeeping by the number of pages
+     * should adjust it; the default implementation does nothing.
+     *
+     * @param capacity the new number of pages
+     */
+    public default void setCapacity(int capacity) {
+    }
+}
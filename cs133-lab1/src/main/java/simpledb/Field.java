@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the same bytes as {@link #serialize(DataOutputStream)} at the
+     * position of dst, and advance the position past them.
+     * @param dst The buffer to write to; it must have room for
+     *            getType().getSizeInBytes() bytes.
+     */
+    void serialize(ByteBuffer dst);
+
     /**
      * Compare the value of this field object to the passed in value.
      * Example usage: foo.compare(op, value) is interpreted as "foo op value"
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Remembers roughly how much room each page of a HeapFile has left, so an
+ * insert can go straight to a page with room instead of reading the table
+ * from its first page.  Room is counted in the units of the file's
+ * {@link PageFormat}: free slots, or free bytes.
+ * <p>
+ * Each page gets a free-space class of {@link #BITS_PER_PAGE} bits:
+ * {@link #FULL} for a page without room, and then 1 to 3 for a page with
+ * less than a third, less than two thirds, or at least two thirds of its
+ * room free.  The classes are packed four pages to a byte.  The map
+ * also keeps the lowest page that may have room; {@link #findPage} scans
+ * forward from there and only ever moves it past pages that are full, so
+ * inserts find a page in O(1) amortized time.
+ * <p>
+ * The map is only a hint: whoever uses a page it returns checks the page
+ * itself and {@link #update updates} the map if it was wrong.  It is saved
+ * next to the table's file, with the suffix {@code .fsm}, at each
+ * checkpoint, so a map loaded after a crash may be out of date by the
+ * changes made since; when that file is missing or does not match the
+ * number of pages of the table it is rebuilt from the headers of the
+ * pages.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    private static final int MAGIC = 0x4653504d;   // "FSPM"
+
+    /** Number of bits of free-space class per page. */
+    static final int BITS_PER_PAGE = 2;
+    private static final int PAGES_PER_BYTE = 8 / BITS_PER_PAGE;
+    private static final int MASK = (1 << BITS_PER_PAGE) - 1;
+
+    /** Class of a page without room. */
+    static final int FULL = 0;
+
+    private final int capacity;
+    private byte[] classes;
+    private int numPages;
+    //这一页之前的页都是满的
+    private int hint;
+    //有没有没保存的修改
+    private boolean dirty;
+
+    /** An empty map for pages with room for capacity units when empty. */
+    FreeSpaceMap(int capacity) {
+        this.capacity = capacity;
+        this.classes = new byte[16];
+    }
+
+    /** @return the free-space class of a page with room for free units */
+    int classOf(int free) {
+        if (free <= 0)
+            return FULL;
+        return 1 + Math.min(2, (int) ((long) free * 3 / Math.max(1, capacity)));
+    }
+
+    /** @return the number of pages in the map */
+    synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the free-space class of page pgNo; pages past the end are full */
+    synchronized int getClass(int pgNo) {
+        if (pgNo < 0 || pgNo >= numPages)
+            return FULL;
+        return (classes[pgNo / PAGES_PER_BYTE] >> shift(pgNo)) & MASK;
+    }
+
+    /**
+     * Record that page pgNo has room for free units, growing the map if the
+     * page is past its end; pages in between are taken to be full.
+     */
+    synchronized void update(int pgNo, int free) {
+        if (pgNo >= numPages) {
+            int bytes = pgNo / PAGES_PER_BYTE + 1;
+            if (bytes > classes.length)
+                classes = Arrays.copyOf(classes, Math.max(bytes, classes.length * 2));
+            numPages = pgNo + 1;
+        }
+        int c = classOf(free);
+        int i = pgNo / PAGES_PER_BYTE;
+        int old = classes[i];
+        classes[i] = (byte) ((old & ~(MASK << shift(pgNo))) | (c << shift(pgNo)));
+        if (classes[i] != old)
+            dirty = true;
+        if (c != FULL && pgNo < hint)
+            hint = pgNo;
+    }
+
+    /**
+     * @return the lowest page that the map thinks has room, or -1 if
+     *         every page is full
+     */
+    synchronized int findPage() {
+        int i = hint / PAGES_PER_BYTE;
+        int last = (numPages + PAGES_PER_BYTE - 1) / PAGES_PER_BYTE;
+        //四页都满的字节一次跳过
+        while (i < last && classes[i] == 0)
+            i++;
+        for (int pgNo = Math.max(hint, i * PAGES_PER_BYTE); pgNo < numPages; pgNo++) {
+            if (getClass(pgNo) != FULL) {
+                hint = pgNo;
+                return pgNo;
+            }
+        }
+        hint = numPages;
+        return -1;
+    }
+
+    private static int shift(int pgNo) {
+        return (pgNo % PAGES_PER_BYTE) * BITS_PER_PAGE;
+    }
+
+    /** @return the file the map of the table stored in f is saved in */
+    static File fileFor(File f) {
+        return new File(f.getPath() + ".fsm");
+    }
+
+    /** Save the map to f if it changed since it was loaded or last saved. */
+    synchronized void save(File f) throws IOException {
+        if (!dirty)
+            return;
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(capacity);
+            out.writeInt(numPages);
+            out.write(classes, 0, (numPages + PAGES_PER_BYTE - 1) / PAGES_PER_BYTE);
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not replace " + f);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Load the map saved at f.
+     *
+     * @return the map, or null if there is no usable map of a table with
+     *         numPages pages of the given capacity at f
+     */
+    static FreeSpaceMap load(File f, int capacity, int numPages) {
+        if (!f.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readInt() != capacity || in.readInt() != numPages)
+                return null;
+            FreeSpaceMap map = new FreeSpaceMap(capacity);
+            int bytes = (numPages + PAGES_PER_BYTE - 1) / PAGES_PER_BYTE;
+            map.classes = new byte[Math.max(bytes, 16)];
+            in.readFully(map.classes, 0, bytes);
+            map.numPages = numPages;
+            return map;
+        } catch (IOException e) {
+            //坏掉的映射 重新构建
+            return null;
+        }
+    }
+}
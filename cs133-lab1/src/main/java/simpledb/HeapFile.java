@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,6 +10,23 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * The pages are kept in {@link SegmentedFile segment files} of 1 GB, which
+ * may be spread over several directories; each segment file is read and
+ * written through its own {@link PageIO}, which keeps the file open and
+ * caches its length.  A heap file of a read-mostly table can be
+ * memory-mapped instead (see {@link #HeapFile(File, TupleDesc, boolean)}),
+ * so its pages are decoded straight out of the OS page cache.
+ * <p>
+ * The pages are in one of the {@link PageFormat page formats}: fixed-size
+ * HeapPages by default, or {@link SlottedPage SlottedPages}, which store
+ * strings with their actual length.
+ * <p>
+ * Inserts find a page with a free slot through the file's
+ * {@link FreeSpaceMap}, which is kept up to date by inserts and deletes and
+ * saved next to the file at each checkpoint.  A {@link ZoneMap},
+ * loaded by the first scan with predicates and kept the same way from then
+ * on, lets such scans skip the pages whose integer columns cannot match.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -17,6 +35,30 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    private final SegmentedFile segments;
+    private final boolean mapped;
+    private final PageFormat format;
+    //空闲空间映射 第一次插入或删除时加载或重建 protected by this
+    private FreeSpaceMap freeSpace;
+    //每页整数列的取值范围 第一次有带条件的扫描时加载或重建 protected by this
+    private ZoneMap zoneMap;
+    //zone map加载之前插入过元组的页 磁盘上的版本可能没有这些元组 protected by this
+    private final BitSet unmappedInserts = new BitSet();
+    //在文件末尾加页时持有 不能在持有this或日志的锁时获取
+    private final Object appendLock = new Object();
+    //批量追加了页 还没提交的事务 protected by this
+    private final Map<TransactionId, List<Extent>> extents = new HashMap<TransactionId, List<Extent>>();
+
+    /** A run of pages appended by appendPages, with the free space of each. */
+    private static final class Extent {
+        final int first;
+        final int[] free;
+
+        Extent(int first, int[] free) {
+            this.first = first;
+            this.free = free;
+        }
+    }
 
 
     /**
@@ -28,9 +70,73 @@ public class HeapFile implements DbFile {
      */
 
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * memory-mapped.  Pages of a mapped file are read from read-only slices
+     * of the mapping, without a copy and without a system call, and only
+     * pages that are written are kept in the BufferPool.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            whether to map the file into memory
+     * @see PageIO#mapped
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, SegmentedFile.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Constructs a heap file whose pages are split into segment files.  The
+     * first segment is f itself; the others are named after it, with the
+     * suffixes .1, .2 and so on, and are spread round-robin over segmentDirs.
+     *
+     * @param f
+     *            the file that stores the first segment of this heap file.
+     * @param mapped
+     *            whether to map the segment files into memory
+     * @param segmentBytes
+     *            the size of a segment file
+     * @param segmentDirs
+     *            the directories for the segments after the first; by
+     *            default they are kept next to f
+     * @see SegmentedFile
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, long segmentBytes, File... segmentDirs) {
+        this(f, td, PageFormat.HEAP, mapped, segmentBytes, segmentDirs);
+    }
+
+    /**
+     * Constructs a heap file whose pages have the given format.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the format of the file's pages
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
+        this(f, td, format, false, SegmentedFile.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Constructs a heap file with the given page format, split into segment
+     * files.
+     *
+     * @see #HeapFile(File, TupleDesc, boolean, long, File...)
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format, boolean mapped, long segmentBytes,
+            File... segmentDirs) {
         // some code goes here
         this.f=f;
         this.td=td;
+        this.segments=new SegmentedFile(f, segmentBytes, segmentDirs);
+        this.mapped=mapped;
+        this.format=format;
     }
 
     /**
@@ -68,28 +174,214 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    // see DbFile.java for javadocs
+    public boolean isMemoryMapped() {
+        return mapped;
+    }
+
+    /** @return the format of the pages of this file */
+    public PageFormat getPageFormat() {
+        return format;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        if (mapped) {
+            Page page = readMapped(pid);
+            if (page != null) {
+                return page;
+            }
+            //文件末尾不完整的页 照常读
+        }
         Page page = null;
-        byte[] data = new byte[BufferPool.getPageSize()];
-
-        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
-            // page在HeapFile的偏移量
-            int pos = pid.getPageNumber() * BufferPool.getPageSize();
-            raf.seek(pos);
-            raf.read(data, 0, data.length);
-            page = new HeapPage((HeapPageId) pid, data);
+        //页解码完就不再引用这块缓冲区 可以复用
+        byte[] data = PageIO.buffer(1);
+
+        try {
+            segments.read(pid.getPageNumber(), ByteBuffer.wrap(data, 0, BufferPool.getPageSize()));
+            page = format.decode((HeapPageId) pid, data, 0);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return page;
     }
 
+    private Page readMapped(PageId pid) {
+        try {
+            ByteBuffer slice = segments.mapped(pid.getPageNumber());
+            return slice == null ? null : format.decodeFrame((HeapPageId) pid, slice);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPageInto(PageId pid, ByteBuffer frame) {
+        if (mapped || format != PageFormat.HEAP || frame.capacity() != BufferPool.getPageSize()) {
+            return readPage(pid);
+        }
+        try {
+            ByteBuffer dst = frame.duplicate();
+            dst.clear();
+            //直接读入页框
+            segments.read(pid.getPageNumber(), dst);
+            return HeapPage.fromFrame((HeapPageId) pid, frame);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    //一次聚集写(或分散读)最多合并的页数
+    private static final int MAX_GATHER_PAGES = 64;
+
+    // see DbFile.java for javadocs
+    public List<Page> readPages(List<PageId> pids) {
+        if (mapped) {
+            return DbFile.super.readPages(pids);
+        }
+        int pageSize = BufferPool.getPageSize();
+        List<Page> pages = new ArrayList<Page>(pids.size());
+        int start = 0;
+        while (start < pids.size()) {
+            //页号连续的一段页 用一次分散读读进同一块缓冲区
+            int end = runEnd(pids, start);
+            byte[] data = PageIO.buffer(end - start);
+            ByteBuffer[] dsts = new ByteBuffer[end - start];
+            for (int i = 0; i < dsts.length; i++) {
+                dsts[i] = ByteBuffer.wrap(data, i * pageSize, pageSize);
+            }
+            try {
+                segments.read(pids.get(start).getPageNumber(), dsts);
+                for (int i = 0; i < dsts.length; i++) {
+                    pages.add(format.decode((HeapPageId) pids.get(start + i), data, i * pageSize));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                while (pages.size() < end) {
+                    pages.add(null);
+                }
+            }
+            start = end;
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> readPagesInto(List<PageId> pids, ByteBuffer[] frames) {
+        if (mapped || format != PageFormat.HEAP || frames.length == 0
+                || frames[0].capacity() != BufferPool.getPageSize()) {
+            return readPages(pids);
+        }
+        List<Page> pages = new ArrayList<Page>(pids.size());
+        int start = 0;
+        while (start < pids.size()) {
+            int end = runEnd(pids, start);
+            ByteBuffer[] dsts = new ByteBuffer[end - start];
+            for (int i = 0; i < dsts.length; i++) {
+                dsts[i] = frames[start + i].duplicate();
+                dsts[i].clear();
+            }
+            try {
+                //直接分散读入各个页框
+                segments.read(pids.get(start).getPageNumber(), dsts);
+                for (int i = start; i < end; i++) {
+                    pages.add(HeapPage.fromFrame((HeapPageId) pids.get(i), frames[i]));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                while (pages.size() < end) {
+                    pages.add(null);
+                }
+            }
+            start = end;
+        }
+        return pages;
+    }
+
+    // the end of the run of consecutive page numbers that starts at start
+    private static int runEnd(List<PageId> pids, int start) {
+        int end = start + 1;
+        while (end < pids.size() && end - start < MAX_GATHER_PAGES
+                && pids.get(end).getPageNumber() == pids.get(end - 1).getPageNumber() + 1) {
+            end++;
+        }
+        return end;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        writePages(Collections.singletonList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        List<Page> sorted = new ArrayList<Page>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        ZoneMap zones;
+        synchronized (this) {
+            zones = zoneMap;
+        }
+        int start = 0;
+        while (start < sorted.size()) {
+            //找出一段页号连续的页 用一次聚集写写出去
+            int end = start + 1;
+            while (end < sorted.size() && end - start < MAX_GATHER_PAGES
+                    && sorted.get(end).getId().getPageNumber()
+                       == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            //整段页直接编码进本线程的缓冲区 不为每页分配数组
+            byte[] buf = PageIO.buffer(end - start);
+            ByteBuffer[] srcs = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                Page page = sorted.get(i);
+                srcs[i - start] = pageSlice(buf, i - start);
+                //编码时不能有修改 (修改也是在页的监视器里做的)
+                synchronized (page) {
+                    if (zones != null) {
+                        //写出去的是哪些元组 这一页的范围就缩到哪些元组 (删除在这时才生效)
+                        zones.reset(page.getId().getPageNumber(), (TuplePage) page);
+                    }
+                    page.writeTo(srcs[i - start]);
+                }
+                srcs[i - start].flip();
+            }
+            segments.write(sorted.get(start).getId().getPageNumber(), srcs);
+            start = end;
+        }
+    }
+
+    /**
+     * Save the free-space map and the zone map of this file next to it, if
+     * they are loaded and changed since they were last saved.
+     */
+    public void checkpoint() throws IOException {
+        FreeSpaceMap map;
+        ZoneMap zones;
+        synchronized (this) {
+            map = freeSpace;
+            zones = zoneMap;
+        }
+        if (map != null) {
+            map.save(FreeSpaceMap.fileFor(f));
+        }
+        if (zones != null) {
+            zones.save(ZoneMap.fileFor(f), numPages(), segments.lastModified());
+        }
+    }
+
+    // The i-th page of buf, as a buffer whose index 0 is the page's first byte.
+    private static ByteBuffer pageSlice(byte[] buf, int i) {
+        int pageSize = BufferPool.getPageSize();
+        return ByteBuffer.wrap(buf, i * pageSize, pageSize).slice();
     }
 
     /**
@@ -98,68 +390,401 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
 
-        return (int) (f.length()/BufferPool.getPageSize());
+        return segments.numPages();
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        FreeSpaceMap map = freeSpace();
+        while (true) {
+            int pgNo = map.findPage();
+            if (pgNo < 0) {
+                pgNo = appendPage(map);
+            }
+            final int target = pgNo;
+            TuplePage page = modify(tid, new HeapPageId(getId(), pgNo), map, p -> {
+                if (p.hasRoomFor(t)) {
+                    p.insertTuple(t);
+                    //插入不加载zone map 还没加载时只记下这一页
+                    ZoneMap zones;
+                    synchronized (HeapFile.this) {
+                        zones = zoneMap;
+                        if (zones == null) {
+                            unmappedInserts.set(target);
+                        }
+                    }
+                    if (zones != null) {
+                        zones.include(target, t);
+                    }
+                    return true;
+                }
+                return false;
+            });
+            if (page != null) {
+                return new ArrayList<Page>(Collections.singletonList(page));
+            }
+            //映射说有空位 其实放不下 modify已经把这页记成满的了 换一页
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()
+                || rid.getPageId().getPageNumber() >= numPages()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        TuplePage page = modify(tid, rid.getPageId(), freeSpace(), p -> {
+            p.deleteTuple(t);
+            return true;
+        });
+        return new ArrayList<Page>(Collections.singletonList(page));
+    }
+
+    /** A change to one page; returns false if it left the page alone. */
+    private interface PageChange {
+        boolean apply(TuplePage page) throws DbException;
+    }
+
+    /**
+     * Apply a change to a page in the BufferPool and record the page's free
+     * space.  The page is pinned while it is changed and marked dirty
+     * before it is unpinned, so it cannot be evicted half-changed.  A page
+     * the change was left alone on is recorded as full.
+     *
+     * @return the page, or null if the change left it alone
+     */
+    private TuplePage modify(TransactionId tid, PageId pid, FreeSpaceMap map, PageChange change)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        TuplePage page = (TuplePage) pool.pinPage(tid, pid, Permissions.READ_WRITE);
+        try {
+            //同一页上的修改排队进行
+            synchronized (page) {
+                boolean changed = change.apply(page);
+                if (!changed) {
+                    //放不下这个元组 当作满页 等有删除时再更新
+                    map.update(pid.getPageNumber(), 0);
+                    return null;
+                }
+                map.update(pid.getPageNumber(), page.getFreeSpace());
+                page.markDirty(true, tid);
+            }
+        } finally {
+            pool.unpinPage(pid);
+        }
+        return page;
+    }
+
+    /** Add an empty page at the end of the file and to the free-space map. */
+    private int appendPage(FreeSpaceMap map) throws IOException {
+        synchronized (appendLock) {
+            //别的线程可能刚刚加了一页
+            int pgNo = map.findPage();
+            if (pgNo >= 0) {
+                return pgNo;
+            }
+            pgNo = numPages();
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            writePage(format.decode(pid, HeapPage.createEmptyPageData(), 0));
+            map.update(pgNo, format.capacity(td));
+            return pgNo;
+        }
+    }
+
+    /**
+     * Append pages to the end of this file on behalf of tid, writing them
+     * directly instead of through the BufferPool.  A single EXTENT record
+     * is logged for the whole run in place of an image of each page.
+     * <p>
+     * Until tid completes, the pages count as full, so inserts through the
+     * BufferPool put no tuples on them.  When tid commits, they are forced
+     * to disk and their free space is published; if it aborts, they are
+     * overwritten with empty pages.
+     *
+     * @param pages full pages of this file's {@link #getPageFormat format},
+     *              built outside the BufferPool; their ids are ignored and
+     *              they are numbered from the current end of the file.  The
+     *              record ids of their tuples are set to the pages' final
+     *              page numbers.
+     * @return the page number of the first appended page
+     * @see BulkInsert
+     * @see LogFile#logExtent
+     */
+    public int appendPages(TransactionId tid, List<? extends TuplePage> pages)
+            throws DbException, IOException {
+        FreeSpaceMap map = freeSpace();
+        int[] free = new int[pages.size()];
+        byte[] buf = PageIO.buffer(pages.size());
+        ByteBuffer[] srcs = new ByteBuffer[pages.size()];
+        for (int i = 0; i < srcs.length; i++) {
+            free[i] = pages.get(i).getFreeSpace();
+            srcs[i] = pageSlice(buf, i);
+            pages.get(i).writeTo(srcs[i]);
+            srcs[i].flip();
+        }
+        int first;
+        synchronized (appendLock) {
+            first = numPages();
+            if (srcs.length == 0) {
+                return first;
+            }
+            //先记日志再写页 崩溃后能找到没提交的页段
+            Database.getLogFile().logExtent(tid, getId(), first, srcs.length);
+            segments.write(first, srcs);
+            ZoneMap zones;
+            synchronized (this) {
+                zones = zoneMap;
+                extents.computeIfAbsent(tid, k -> new ArrayList<Extent>()).add(new Extent(first, free));
+            }
+            for (int i = 0; i < srcs.length; i++) {
+                map.update(first + i, 0);
+                if (zones != null) {
+                    zones.reset(first + i, pages.get(i));
+                }
+            }
+        }
+        //页是用临时的页号建的 元组的record id改成追加到的页
+        for (int i = 0; i < srcs.length; i++) {
+            PageId pid = new HeapPageId(getId(), first + i);
+            for (Iterator<Tuple> it = pages.get(i).iterator(); it.hasNext(); ) {
+                Tuple t = it.next();
+                t.setRecordId(new RecordId(pid, t.getRecordId().getTupleNumber()));
+            }
+        }
+        Database.getBufferPool().appendedTo(tid, getId());
+        return first;
+    }
+
+    // see DbFile.java for javadocs
+    public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
+        List<Extent> done;
+        FreeSpaceMap map;
+        synchronized (this) {
+            done = extents.remove(tid);
+            map = freeSpace;
+        }
+        if (done == null) {
+            return;
+        }
+        if (commit) {
+            segments.force();
+            for (Extent e : done) {
+                for (int i = 0; i < e.free.length; i++) {
+                    map.update(e.first + i, e.free[i]);
+                }
+            }
+            return;
+        }
+        //回滚: 把追加的页换成空页 (后面可能已经有别的页 不能截断文件)
+        BufferPool pool = Database.getBufferPool();
+        List<Page> empty = new ArrayList<Page>();
+        for (Extent e : done) {
+            for (int i = 0; i < e.free.length; i++) {
+                HeapPageId pid = new HeapPageId(getId(), e.first + i);
+                pool.discardPage(pid);
+                empty.add(format.decode(pid, HeapPage.createEmptyPageData(), 0));
+            }
+        }
+        writePages(empty);
+        for (Page p : empty) {
+            map.update(p.getId().getPageNumber(), format.capacity(td));
+        }
+    }
+
+    /**
+     * @return the free-space map of this file, loaded from its file or, if
+     *         that is missing or out of date, rebuilt from the page headers
+     */
+    synchronized FreeSpaceMap freeSpace() throws DbException {
+        if (freeSpace != null) {
+            return freeSpace;
+        }
+        int capacity = format.capacity(td);
+        int numPages = numPages();
+        FreeSpaceMap map = FreeSpaceMap.load(FreeSpaceMap.fileFor(f), capacity, numPages);
+        if (map == null) {
+            map = new FreeSpaceMap(capacity);
+            //只读每页开头的header 算出剩下的空间
+            byte[] header = new byte[format.headerSize(td)];
+            try {
+                for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                    segments.read(pgNo, ByteBuffer.wrap(header));
+                    map.update(pgNo, format.freeSpace(td, header));
+                }
+            } catch (IOException e) {
+                throw new DbException("could not rebuild the free-space map of " + f + ": " + e);
+            }
+        }
+        freeSpace = map;
+        return map;
+    }
+
+    /**
+     * @return the zone map of this file, loaded from its file or, if that
+     *         is missing or out of date, rebuilt by reading every page.
+     *         Inserts do not load it; the pages they changed before it was
+     *         loaded may differ from their version on disk, so their zones
+     *         start out unknown.
+     */
+    synchronized ZoneMap zoneMap() throws DbException {
+        if (zoneMap != null) {
+            return zoneMap;
+        }
+        int numPages = numPages();
+        ZoneMap zones = ZoneMap.load(ZoneMap.fileFor(f), td, numPages, segments.lastModified());
+        if (zones == null) {
+            zones = new ZoneMap(td);
+            //没有整数列就没什么可记的 所有页都当作未知
+            for (int pgNo = 0; zones.numColumns() > 0 && pgNo < numPages; pgNo++) {
+                Page page = readPage(new HeapPageId(getId(), pgNo));
+                if (page == null) {
+                    throw new DbException("could not rebuild the zone map of " + f);
+                }
+                zones.reset(pgNo, (TuplePage) page);
+            }
+        }
+        for (int pgNo = unmappedInserts.nextSetBit(0); pgNo >= 0; pgNo = unmappedInserts.nextSetBit(pgNo + 1)) {
+            zones.forget(pgNo);
+        }
+        unmappedInserts.clear();
+        zoneMap = zones;
+        return zones;
+    }
+
+    // see DbFile.java for javadocs
+    public void pageRolledBack(Page page) {
+        FreeSpaceMap map;
+        ZoneMap zones;
+        synchronized (this) {
+            map = freeSpace;
+            zones = zoneMap;
+        }
+        int pgNo = page.getId().getPageNumber();
+        if (map != null) {
+            map.update(pgNo, ((TuplePage) page).getFreeSpace());
+        }
+        if (zones != null) {
+            //恢复出来的元组要重新算进范围
+            Iterator<Tuple> it = ((TuplePage) page).iterator();
+            while (it.hasNext()) {
+                zones.include(pgNo, it.next());
+            }
+        }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples on the pages of this file that
+     * may hold a tuple satisfying all of the predicates, according to the
+     * file's zone map.  Only predicates that compare an integer column to
+     * an IntField are used to skip pages.  The tuples on the pages that are
+     * read are all returned; the caller still has to apply the predicates.
+     *
+     * @param predicates predicates on the fields of this file's TupleDesc
+     * @see SeqScan#SeqScan(TransactionId, int, String, int[], List)
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, new ArrayList<Predicate>(predicates));
     }
     private class HeapFileIterator implements DbFileIterator{
         private int PagePos;  //逻辑应该是 遍历不同的页数 再访问不同页数中的tuple
 
         private TransactionId tid;
 
-        private HeapPage Page;
+        private TuplePage Page;
 
         private Iterator<Tuple> tupleIterator;
-        public HeapFileIterator(TransactionId tid){
+
+        //大表扫描时使用的私有页环 不经过共享缓存池 小表为null
+        private ScanRing ring;
+        //顺序扫描时在后台预读后面的页
+        private ReadAhead readAhead;
+
+        private final List<Predicate> predicates;
+        //按区域映射可能有匹配的页号 没有谓词时为null 表示所有页
+        private int[] pages;
+
+        public HeapFileIterator(TransactionId tid, List<Predicate> predicates){
             this.tid=tid;
+            this.predicates=predicates;
         }
+
+        //要读的页数 PagePos是第几个要读的页
+        private int limit() {
+            return pages == null ? numPages() : pages.length;
+        }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
             PagePos=0;
-            HeapPageId heapPageId=new HeapPageId(getId(),PagePos);
+            if (readAhead != null) {
+                readAhead.close();
+            }
+            int numPages = numPages();
+            pages = null;
+            if (!predicates.isEmpty()) {
+                //跳过区域映射证明不可能有匹配的页
+                ZoneMap zones = zoneMap();
+                int[] candidates = new int[numPages];
+                int n = 0;
+                for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                    if (zones.mayMatch(pgNo, predicates)) {
+                        candidates[n++] = pgNo;
+                    }
+                }
+                pages = Arrays.copyOf(candidates, n);
+                numPages = n;
+            }
+            //映射的文件不经过缓存池 不需要页环
+            if (ring == null && !mapped && Database.getBufferPool().isBulkRead(numPages)) {
+                ring = new ScanRing(ScanRing.DEFAULT_PAGES);
+            }
+            if (pages != null && pages.length == 0) {
+                //没有可能匹配的页
+                readAhead = null;
+                Page = null;
+                tupleIterator = Collections.emptyIterator();
+                return;
+            }
+            final int tableId = getId();
+            final int[] chosen = pages;
+            readAhead = new ReadAhead(HeapFile.this, numPages,
+                    i -> new HeapPageId(tableId, chosen == null ? i : chosen[i]), ring);
             //加载第一页的tuples
-            Page= (HeapPage) Database.getBufferPool().getPage(tid,heapPageId,Permissions.READ_ONLY);
+            Page= (TuplePage) readAhead.getPage(tid,PagePos);
             tupleIterator=Page.iterator();
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if(Page==null){  //判断开始页是否为空
+            if(tupleIterator==null){  //判断是否已经初始化
                 throw new IllegalStateException("没有初始化或者初始页面为空");
             }
-            if(tupleIterator.hasNext()){
-               return true;
-            }
-            //程序运行到这里 表明这一页已经读完了 往后一页走
-            if(PagePos < numPages()-1){
+            //这一页读完了就往后一页走 删空了的页直接跳过
+            while(!tupleIterator.hasNext()){
+                if(PagePos >= limit()-1){ //表明没有下一页了
+                    return false;
+                }
                 PagePos++;
-                HeapPageId heapPageId=new HeapPageId(getId(),PagePos);
-                Page= (HeapPage) Database.getBufferPool().getPage(tid,heapPageId,Permissions.READ_ONLY); //得到后一页
+                Page= (TuplePage) readAhead.getPage(tid,PagePos); //得到后一页
                 tupleIterator=Page.iterator();   //更新迭代器为后一页的迭代器
-                return tupleIterator.hasNext();                                    //但是别着急 先看看这一页有没有值
-            }else{ //表明没有下一页了
-                return false;
             }
+            return true;
         }
 
         @Override
@@ -182,6 +807,11 @@ public class HeapFile implements DbFile {
             PagePos=0;
             Page=null;
             tupleIterator=null;
+            if (readAhead != null) {
+                readAhead.close();
+                readAhead = null;
+            }
+            ring=null;
         }
     }
 
@@ -1,28 +1,58 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
- * implements the Page interface that is used by BufferPool.
+ * implements the Page interface that is used by BufferPool.  It is the
+ * {@link PageFormat#HEAP} format, with fixed-size slots.
+ * <p>
+ * A page keeps the bytes it was read from and decodes the tuple in a slot
+ * only when the slot is first read, by {@link #iterator()} or
+ * {@link #getTuple}; the decoded tuple is then kept.  Those bytes are also
+ * the page's before image.  Tuples read from a page must not be changed in
+ * place: a slot that has not been written since the page was read is
+ * written back from the bytes, not from its tuple.
  *
  * @see HeapFile
+ * @see SlottedPage
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];//思考: header数组用来存储状态 但是因为一个byte存八位 所以如果有18个slot,要有24位
-                                //因为slot的数目不总是8的倍数 但是在计算元组数量的时候没有将未使用的几位考虑进去
-                                //因此计算出来的最大元组数其实是理论最大值吧  但是因为计算最大元组的时候 总是向下取整 因此总能保证结果是正确的
-    final Tuple tuples[];
+    //header里的槽位图 按64位一个字存 数数和找槽一次看64个槽
+    final SlotBitmap header;
+    //header在页面上占的字节数 slot的数目不总是8的倍数 最后一个字节可能有没用的位
+    private final int headerBytes;
+    //解码过的元组 空槽和还没读过的槽为null
+    private final AtomicReferenceArray<Tuple> tuples;
+    //读入或者上次setBeforeImage以后插入过的槽 写回时要重新编码
+    private final boolean[] inserted;
     final int numSlots;
+    //空槽数 随插入删除维护 不必每次都数一遍header
+    private int numEmptySlots;
 
+    //before image 也是还没解码的槽的来源 只会整个换掉 不会原地修改
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
+    //提交以后 before image就是页面现在的内容 等下一次修改前才真正保存 protected by oldDataLock
+    private boolean beforeIsCurrent;
+
+    //堆外模式下页面所在的页框 保存页面在磁盘上的映像(即before image) 否则为null
+    //只读页框(内存映射的文件)在页面第一次被修改时换成oldData protected by oldDataLock
+    private ByteBuffer frame;
+
+    //最后一次修改该页的事务 页面干净时为null
+    private volatile TransactionId dirtier;
+
+    //清空槽和页尾时用的全零块
+    private static final byte[] ZEROS = new byte[512];
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -41,27 +71,77 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, null);
+    }
+
+    // Exactly one of data and frame is the page's bytes; data is kept, not copied.
+    private HeapPage(HeapPageId id, byte[] data, ByteBuffer frame) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.frame = frame;
+        this.oldData = data;
+
+        // read the header slots of this page; the records are decoded when they are read
+        headerBytes = getHeaderSize();
+        header = new SlotBitmap(numSlots);
+        if (frame != null) {
+            header.read(frame, 0);
+        } else {
+            if (data.length < BufferPool.getPageSize())
+                throw new IOException("page " + id + " is " + data.length + " bytes long");
+            header.read(ByteBuffer.wrap(data), 0);
         }
-        dis.close();
+        numEmptySlots = numSlots - header.cardinality();
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+        inserted = new boolean[numSlots];
+    }
 
-        setBeforeImage();
+    /**
+     * Create a HeapPage from the {@link BufferPool#getPageSize()} bytes of
+     * data at offset in a larger buffer, e.g. one that several pages were
+     * read into at once.  The bytes are not referenced after this returns.
+     */
+    static HeapPage fromBytes(HeapPageId id, byte[] data, int offset) throws IOException {
+        return new HeapPage(id, Arrays.copyOfRange(data, offset, offset + BufferPool.getPageSize()), null);
+    }
+
+    /**
+     * Create a HeapPage over a buffer pool frame that already holds the
+     * page's bytes as read from disk.  The tuples are decoded straight from
+     * the frame, and the frame itself (rather than a cloned byte array)
+     * serves as the before image, so it must stay reserved for this page for
+     * as long as the page is in the buffer pool.
+     * <p>
+     * The frame may also be a read-only slice of a memory-mapped file.  It
+     * is then the before image only until the page is first marked dirty,
+     * when the before image is copied to the heap: the mapping shows the
+     * file, which changes as soon as the page is written back.
+     *
+     * @see PageArena
+     * @see HeapFile#isMemoryMapped()
+     */
+    public static HeapPage fromFrame(HeapPageId id, ByteBuffer frame) throws IOException {
+        return new HeapPage(id, null, frame);
+    }
+
+    /**
+     * Called by the BufferPool before it gives this page's frame to another
+     * page.  If some used slots have not been decoded yet, the frame is
+     * copied to the heap, so whoever still holds the page can read them.
+     */
+    void detachFrame() {
+        synchronized (oldDataLock) {
+            if (frame == null || frame.isReadOnly())
+                return;
+            for (int i = header.nextUsed(0); i >= 0; i = header.nextUsed(i + 1)) {
+                if (tuples.get(i) == null) {
+                    oldData = copyFrame();
+                    frame = null;
+                    return;
+                }
+            }
+        }
     }
 
     /** Retrieve the number of tuples that can be stored on this page.
@@ -72,12 +152,22 @@ public class HeapPage implements Page {
         if(numSlots!=0){
             return  numSlots;
         }
+        return slotsPerPage(td);
+    }
+
+    /** @return the number of tuple slots on a page of a table with schema td */
+    static int slotsPerPage(TupleDesc td) {
         int PageSize=BufferPool.getPageSize();
         int TupleSize=td.getSizeInBytes();
         int numTuples = (PageSize* 8) / (TupleSize * 8 + 1);
         return numTuples;
     }
 
+    /** @return the number of header bytes on a page of a table with schema td */
+    static int headerSize(TupleDesc td) {
+        return SlotBitmap.bytes(slotsPerPage(td));
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
@@ -96,9 +186,15 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                if (beforeIsCurrent) {
+                    oldDataRef = getPageData();
+                } else if (frame != null) {
+                    oldDataRef = copyFrame();
+                } else {
+                    oldDataRef = oldData;
+                }
             }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,oldDataRef,null);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +203,49 @@ public class HeapPage implements Page {
         return null;
     }
     
+    private byte[] copyFrame() {
+        byte[] data = new byte[frame.capacity()];
+        ByteBuffer src = frame.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            if (frame != null && !frame.isReadOnly()) {
+                //直接在页框里把旧映像改成当前内容 没变的槽原样留着
+                ByteBuffer dst = frame.duplicate();
+                dst.clear();
+                encode(dst, 0, false);
+                //插入的元组现在也在before image里了
+                Arrays.fill(inserted, false);
+            } else {
+                //不复制 大多数提交过的页不会再被修改
+                beforeIsCurrent = true;
+            }
+        }
+    }
+
+    // Copy-on-write: after a commit, the before image is only taken when the
+    // page is next changed.
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (!beforeIsCurrent) {
+                return;
+            }
+            oldData = getPageData();
+            frame = null;
+            Arrays.fill(inserted, false);
+            beforeIsCurrent = false;
+        }
+    }
+
+    // The bytes the page was read from, as a buffer whose index 0 is the page's first byte.
+    private ByteBuffer source() {
+        synchronized (oldDataLock) {
+            return frame != null ? frame : ByteBuffer.wrap(oldData);
         }
     }
 
@@ -126,39 +261,59 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decode the tuple in a used slot from the bytes the page was read from.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSizeInBytes(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    private Tuple readTuple(ByteBuffer src, int slotId) {
+        int pos = headerBytes + slotId * td.getSizeInBytes();
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j=0; j<td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                t.setField(j, new IntField(src.getInt(pos)));
+            } else {
+                int len = Math.max(0, Math.min(Type.STRING_LEN, src.getInt(pos)));
+                byte[] bs = new byte[len];
+                src.get(pos + 4, bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
             }
-            return null;
+            pos += type.getSizeInBytes();
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * @return the tuple in slot i, decoding it if this is the first time it
+     *         is read, or null if the slot is empty
+     */
+    private Tuple tuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        Tuple t = tuples.get(i);
+        if (t == null) {
+            t = readTuple(source(), i);
+            //别的线程可能同时解码了这一槽 用先放进去的那个
+            if (!tuples.compareAndSet(i, null, t)) {
+                t = tuples.get(i);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
-
         return t;
     }
 
+    /**
+     * @return the tuple stored at rid, or null if its slot on this page is
+     *         empty
+     * @throws NoSuchElementException if rid is not on this page
+     */
+    public Tuple getTuple(RecordId rid) {
+        int slot = rid.getTupleNumber();
+        if (!pid.equals(rid.getPageId()) || slot < 0 || slot >= numSlots) {
+            throw new NoSuchElementException("record " + rid + " is not on page " + pid);
+        }
+        return tuple(slot);
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -171,64 +326,72 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSizeInBytes(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Write the bytes of {@link #getPageData()} at the position of dst and
+     * advance its position by one page, without building the page in an
+     * array first.  The slots that did not change since the page was read
+     * are copied over with one bulk put; only inserted tuples are encoded,
+     * each field at its offset from {@link TupleDesc#getFieldOffset}.
+     */
+    public void writeTo(ByteBuffer dst) {
+        encode(dst, dst.position(), true);
+    }
 
+    // Write the page at dst[base, base + page size).  Unless copy is set,
+    // dst must already hold the bytes the page was read from.
+    private void encode(ByteBuffer dst, int base, boolean copy) {
+        int len = BufferPool.getPageSize();
+        int size = td.getSizeInBytes();
+        if (copy) {
+            synchronized (oldDataLock) {
+                if (frame != null) {
+                    dst.put(base, frame, 0, len);
+                } else {
+                    dst.put(base, oldData, 0, len);
                 }
+            }
+        }
+        header.write(dst, base);
+        int slot = 0;
+        while (slot < numSlots) {
+            int used = header.nextUsed(slot);
+            // a run of empty slots
+            int runEnd = used < 0 ? numSlots : used;
+            zero(dst, base + headerBytes + slot * size, (runEnd - slot) * size);
+            if (used < 0) {
+                break;
+            }
+            slot = used + 1;
+            if (!inserted[used]) {
                 continue;
             }
-
-            // non-empty slot
+            // slot written since the page was read
+            int pos = base + headerBytes + used * size;
+            Tuple t = tuples.get(used);
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                dst.position(pos + td.getFieldOffset(j));
+                t.getField(j).serialize(dst);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSizeInBytes() * tuples.length); //- numSlots * td.getSizeInBytes();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int end = headerBytes + size * numSlots;
+        zero(dst, base + end, len - end);
+        dst.position(base + len);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    private static void zero(ByteBuffer dst, int index, int n) {
+        while (n > 0) {
+            int k = Math.min(n, ZEROS.length);
+            dst.put(index, ZEROS, 0, k);
+            index += k;
+            n -= k;
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -255,6 +418,19 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        captureBeforeImage();
+        markSlotUsed(slot, false);
+        tuples.set(slot, null);
+        inserted[slot] = false;
+        t.setRecordId(null);
     }
 
     /**
@@ -267,6 +443,18 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        if (numEmptySlots == 0) {
+            throw new DbException("page is full");
+        }
+        captureBeforeImage();
+        int slot = header.nextFree(0);
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
+        inserted[slot] = true;
     }
 
     /**
@@ -277,7 +465,17 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        if (dirty) {
+            synchronized(oldDataLock)
+            {
+                if (frame != null && frame.isReadOnly()) {
+                    //在这一页写回文件之前 把映射里的旧映像复制出来
+                    oldData = copyFrame();
+                    frame = null;
+                }
+            }
+        }
+        dirtier = dirty ? tid : null;
     }
 
     /**
@@ -285,8 +483,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -294,29 +491,24 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        // todo
-        int numEmptySlots=0;
-        for (int i = 0; i < getNumTuples(); i++) {
-            if(!isSlotUsed(i)){
-                numEmptySlots++;
-            }
-        }
         return numEmptySlots;
     }
 
+    /** @return the number of empty slots on this page */
+    public int getFreeSpace() {
+        return numEmptySlots;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return numEmptySlots > 0;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        int bytenum=i/8;
-        int posIntbyte=i%8;
-        return isOne(header[bytenum],posIntbyte); //posIntbyte是从右往左的
-    }
-    private boolean isOne(byte target, int posInByte) {
-        // 例如该byte是11111011,pos是2(也就是0那个bit的位置)
-        // 那么只需先左移7-2=5位即可通过符号位来判断，注意要强转
-        return (byte) (target << (7 - posInByte)) < 0;  //1为false
+        return header.get(i);
     }
     /**
      * Abstraction to fill or clear a slot on this page.
@@ -326,6 +518,15 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        if (isSlotUsed(i) == value) {
+            return;
+        }
+        header.set(i, value);
+        if (value) {
+            numEmptySlots--;
+        } else {
+            numEmptySlots++;
+        }
     }
 
 
@@ -338,25 +539,23 @@ public class HeapPage implements Page {
         return new UsedTupleItrator();
     }
     private class UsedTupleItrator implements Iterator<Tuple>{
-        private int UsedTupleNum=getNumTuples()-getNumEmptySlots();
-        private int curindex=0; //标注当前位置
+        //从这个槽开始找下一个非空槽 空槽整字整字地跳过
+        //每次现找 迭代时删掉的元组不会再返回
+        private int from=0;
 
-        private int pos=0; //标注找到非空的数量
         @Override
         public boolean hasNext() {
-            return pos<UsedTupleNum;
+            return header.nextUsed(from)>=0;
         }
 
         @Override
         public Tuple next() {
-            if (!hasNext()) {
+            int slot=header.nextUsed(from);
+            if (slot<0) {
                 throw new NoSuchElementException("找完了所有slot");
             }
-            while(!isSlotUsed(curindex)){  //引入pos的好处是 一旦全部找到 就停止寻找 提高了效率
-                curindex++;
-            }
-            pos++;
-            return tuples[curindex++]; //用完就自增 否则下次next 用到的还是这一个
+            from=slot+1;
+            return tuple(slot); //第一次读到时才解码
         }
     }
 }
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the list of hot pages that lets the BufferPool warm up
+ * after a restart.
+ * <p>
+ * The file starts with a magic number and the number of pages.  Each page is
+ * stored the way LogFile stores page ids: the name of the PageId class,
+ * followed by the length and the contents of {@link PageId#serialize()}.
+ * The PageId class must have a constructor that takes exactly that many
+ * ints.
+ *
+ * @see BufferPool#saveHotPages
+ * @see BufferPool#loadHotPages
+ */
+class HotPageList {
+
+    private static final int MAGIC = 0x484f5450;   // "HOTP"
+
+    /** Write the list to f, replacing the old one only once the new one is complete. */
+    static void write(File f, List<PageId> pages) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(pages.size());
+            for (PageId pid : pages) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data)
+                    out.writeInt(d);
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not replace " + f);
+        }
+    }
+
+    /**
+     * @return the pages in the list at f, in the order they were written
+     * @throws IOException if the file cannot be read or is not a hot page list
+     */
+    static List<PageId> read(File f) throws IOException {
+        List<PageId> pages = new ArrayList<PageId>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(f + " is not a hot page list");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String className = in.readUTF();
+                int n = in.readInt();
+                Object[] args = new Object[n];
+                Class<?>[] types = new Class<?>[n];
+                for (int j = 0; j < n; j++) {
+                    args[j] = in.readInt();
+                    types[j] = int.class;
+                }
+                try {
+                    Constructor<?> c = Class.forName(className).getDeclaredConstructor(types);
+                    pages.add((PageId) c.newInstance(args));
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IOException("bad page id " + className + " in " + f + ": " + e);
+                }
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored in
+ * a {@link BTreeFile} whose key satisfies a predicate, in key order.  An
+ * equality or range predicate reads only the leaves that hold the matching
+ * keys, where a {@link SeqScan} would read the whole table.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate predicate;
+    private final DbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a BTreeFile
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link SeqScan#SeqScan(TransactionId, int, String)}
+     * @param predicate
+     *            the predicate the returned tuples satisfy; its field must be
+     *            the key field of the table
+     * @throws DbException
+     *             if the table is not a BTreeFile or the predicate is not on
+     *             its key
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate predicate)
+            throws DbException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof BTreeFile)) {
+            throw new DbException("table " + tableid + " has no index");
+        }
+        BTreeFile tree = (BTreeFile) file;
+        if (predicate.getField() != tree.keyField()) {
+            throw new DbException("field " + predicate.getField() + " is not the key of the index");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicate = predicate;
+        this.it = tree.indexIterator(tid, predicate.getOp(), predicate.getOperand());
+    }
+
+    /** @return the predicate on the key that the returned tuples satisfy */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it.open();
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * table alias like {@link SeqScan#getTupleDesc()}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = (tableAlias == null ? "null" : tableAlias) + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return it.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return it.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it.rewind();
+    }
+
+    public void close() {
+        it.close();
+    }
+}
@@ -4,6 +4,7 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -51,8 +52,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and EXTENT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +68,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> EXTENT records consist of an integer table id, the integer number
+of the first page of a run of pages the transaction appended to that
+table without going through the buffer pool, and the integer number of
+pages in the run.  No page images are logged: the pages are forced to
+the table's file before the transaction commits, and undoing the
+append means emptying them.  See HeapFile.appendPages().
+
 </ul>
 
 */
@@ -76,12 +84,15 @@ public class LogFile {
     final File logFile;
     private RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
+    //writePageData编码页面用的缓冲区
+    private ByteBuffer pageBuf;
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int EXTENT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -218,6 +229,30 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an EXTENT record to disk for the specified tid, and force
+        the log to disk, before the pages are written.
+        @param tid The transaction appending the pages
+        @param tableId The table the pages are appended to
+        @param firstPage The page number of the first appended page
+        @param numPages The number of appended pages
+
+        @see simpledb.HeapFile#appendPages
+    */
+    public synchronized void logExtent(TransactionId tid, int tableId,
+                                       int firstPage, int numPages)
+        throws IOException {
+        Debug.log("EXTENT, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(EXTENT_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(numPages);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -240,9 +275,14 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        //页面编码进复用的缓冲区 调用者都持有日志的锁
+        if (pageBuf == null || pageBuf.capacity() != BufferPool.getPageSize()) {
+            pageBuf = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+        pageBuf.clear();
+        p.writeTo(pageBuf);
+        raf.writeInt(pageBuf.position());
+        raf.write(pageBuf.array(), 0, pageBuf.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +305,6 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +314,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            // pages may have more constructors; use the (id, byte[]) one
+            // required by the Page interface
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,6 +332,9 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
@@ -328,6 +373,11 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                //页都写完了 再保存各个表的空闲空间映射之类的附属文件
+                Catalog catalog = Database.getCatalog();
+                for (Iterator<Integer> tables = catalog.tableIdIterator(); tables.hasNext(); ) {
+                    catalog.getDatabaseFile(tables.next()).checkpoint();
+                }
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -429,6 +479,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case EXTENT_RECORD:
+                    //table id, first page, number of pages
+                    for (int i = 0; i < 3; i++)
+                        logNew.writeInt(raf.readInt());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -476,6 +531,12 @@ public class LogFile {
         extensive recovery.)
     */
     public synchronized void shutdown() {
+        try {
+            //记下最热的页 下次启动时预热缓存池
+            Database.getBufferPool().saveHotPages(hotPagesFile(), Database.getBufferPool().getNumPages());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
@@ -485,6 +546,15 @@ public class LogFile {
         }
     }
 
+    /**
+     * @return the file next to the log where the ids of the hottest buffer
+     *         pool pages are kept across restarts
+     * @see BufferPool#saveHotPages
+     */
+    public File hotPagesFile() {
+        return new File(logFile.getPath() + ".hot");
+    }
+
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
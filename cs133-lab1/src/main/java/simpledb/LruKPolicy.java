@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum, 1993).
+ * <p>
+ * For every page the policy remembers the times of its last K references.
+ * The victim is the resident page whose K-th most recent reference is the
+ * oldest, i.e. the page with the largest backward K-distance.  Pages that
+ * have been referenced fewer than K times have an infinite distance, so the
+ * pages touched once by a sequential scan are given up before the pages that
+ * point lookups keep coming back to.  Ties are broken by plain LRU on the
+ * most recent reference.
+ * <p>
+ * The reference history of evicted pages is retained for a while, so that a
+ * page that is read back in soon after its eviction does not start over as a
+ * "seen once" page.
+ */
+public class LruKPolicy implements EvictionPolicy {
+
+    /** Default K; LRU-2 already captures most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private static class History {
+        final PageId pid;
+        /** reference times, most recent first; 0 means "no such reference" */
+        final long[] refs;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void reference(long now) {
+            System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            refs[0] = now;
+        }
+
+        long kthRef() {
+            return refs[refs.length - 1];
+        }
+    }
+
+    /** oldest K-th reference first; the most recent reference is unique and breaks ties */
+    private static final Comparator<History> BY_K_DISTANCE = (a, b) -> {
+        int c = Long.compare(a.kthRef(), b.kthRef());
+        return c != 0 ? c : Long.compare(a.refs[0], b.refs[0]);
+    };
+
+    private final int k;
+    private int retainedLimit;
+    private long clock = 0;
+
+    private final HashMap<PageId, History> resident = new HashMap<>();
+    private final TreeSet<History> order = new TreeSet<>(BY_K_DISTANCE);
+    //被换出页面的访问历史 超过上限时丢掉最老的
+    private final LinkedHashMap<PageId, History> retained;
+
+    /**
+     * Creates an LRU-2 policy for a pool of the given size.
+     *
+     * @param capacity the number of pages in the buffer pool
+     */
+    public LruKPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * @param capacity the number of pages in the buffer pool; this many
+     *                 evicted pages keep their reference history
+     * @param k the number of references remembered per page
+     */
+    public LruKPolicy(int capacity, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedLimit = capacity;
+        this.retained = new LinkedHashMap<PageId, History>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedLimit;
+            }
+        };
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        retainedLimit = capacity;
+        Iterator<PageId> it = retained.keySet().iterator();
+        while (retained.size() > retainedLimit && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public void pageAdded(PageId pid) {
+        History h = resident.get(pid);
+        if (h != null) {
+            pageAccessed(pid);
+            return;
+        }
+        h = retained.remove(pid);
+        if (h == null)
+            h = new History(pid, k);
+        h.reference(++clock);
+        resident.put(pid, h);
+        order.add(h);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null)
+            return;
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null)
+            order.remove(h);
+        retained.remove(pid);
+    }
+
+    public PageId chooseVictim(java.util.function.Predicate<PageId> canEvict) {
+        for (Iterator<History> it = order.iterator(); it.hasNext(); ) {
+            History h = it.next();
+            if (!canEvict.test(h.pid))
+                continue;
+            it.remove();
+            resident.remove(h.pid);
+            retained.put(h.pid, h);
+            return h.pid;
+        }
+        return null;
+    }
+
+    public void victimKept(PageId pid) {
+        if (resident.containsKey(pid))
+            return;
+        History h = retained.remove(pid);
+        if (h == null) {
+            h = new History(pid, k);
+            h.reference(++clock);
+        }
+        //历史不变 不算一次访问
+        resident.put(pid, h);
+        order.add(h);
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Write the bytes of {@link #getPageData()} at the position of dst and
+     * advance the position past them.  Pages that can encode themselves
+     * straight into dst override this to skip the intermediate array.
+     *
+     * @param dst the buffer to write to; it must have room for a page
+     */
+    default void writeTo(ByteBuffer dst) {
+        dst.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A fixed set of page-sized frames carved out of direct (off-heap)
+ * ByteBuffers that are allocated once, when the buffer pool is created.
+ * <p>
+ * In off-heap mode the BufferPool gives every resident page one of these
+ * frames.  The page is read from disk straight into its frame and the frame
+ * keeps the page's on-disk image, which HeapPage would otherwise hold as a
+ * cloned byte array on the Java heap.  Since the frames are never freed, a
+ * large pool costs the garbage collector nothing but the page objects.
+ * <p>
+ * A single ByteBuffer cannot be larger than 2 GB, so the arena is split into
+ * slabs; frames never straddle two slabs.  The arena can {@link #grow} by
+ * adding slabs when the pool is resized, but it never shrinks: direct
+ * buffers are only given back to the system when they are garbage collected.
+ *
+ * @Threadsafe
+ */
+public class PageArena {
+
+    private static final int MAX_SLAB_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerSlab;
+    //页框号 = slab下标 * framesPerSlab + slab内的下标 不满的slab后面的页框号不使用
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    //空闲页框的下标 用作栈 protected by this
+    private int[] free = new int[0];
+    private int numFree;
+    private int numFrames;
+    //每个页框是否在使用 用来检查release protected by this
+    private BitSet inUse = new BitSet();
+
+    /**
+     * Allocate the arena.
+     *
+     * @param numFrames the number of frames
+     * @param frameSize the size of each frame in bytes, normally
+     *                  {@link BufferPool#getPageSize()}
+     */
+    public PageArena(int numFrames, int frameSize) {
+        if (numFrames < 0 || frameSize <= 0)
+            throw new IllegalArgumentException("bad arena size " + numFrames + " x " + frameSize);
+        this.frameSize = frameSize;
+        this.framesPerSlab = Math.max(1, MAX_SLAB_BYTES / frameSize);
+        grow(numFrames);
+    }
+
+    /** @return the size in bytes of every frame of this arena */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the total number of frames in this arena */
+    public synchronized int numFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Add slabs until the arena has at least the given number of frames.
+     * Frames that already exist are not touched.
+     */
+    public synchronized void grow(int numFrames) {
+        if (numFrames <= this.numFrames)
+            return;
+        int added = numFrames - this.numFrames;
+        int[] newFree = new int[numFree + added];
+        System.arraycopy(free, 0, newFree, added, numFree);
+        ArrayList<ByteBuffer> newSlabs = new ArrayList<ByteBuffer>(Arrays.asList(slabs));
+        int k = added;
+        for (int remaining = added; remaining > 0; remaining -= framesPerSlab) {
+            int n = Math.min(remaining, framesPerSlab);
+            int base = newSlabs.size() * framesPerSlab;
+            newSlabs.add(ByteBuffer.allocateDirect(n * frameSize));
+            // hand out low frame numbers first
+            for (int i = 0; i < n; i++)
+                newFree[--k] = base + i;
+        }
+        // the new frames go below the old free ones, which are handed out first
+        free = newFree;
+        numFree += added;
+        this.numFrames = numFrames;
+        slabs = newSlabs.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * Take a free frame.
+     *
+     * @return the frame number, or -1 if every frame is in use
+     */
+    public synchronized int allocate() {
+        if (numFree == 0)
+            return -1;
+        int frameNo = free[--numFree];
+        inUse.set(frameNo);
+        return frameNo;
+    }
+
+    /** Give a frame obtained from {@link #allocate} back to the arena. */
+    public synchronized void release(int frameNo) {
+        if (frameNo < 0 || !inUse.get(frameNo))
+            throw new IllegalArgumentException("frame " + frameNo + " is not in use");
+        inUse.clear(frameNo);
+        free[numFree++] = frameNo;
+    }
+
+    /**
+     * @return a buffer over exactly the bytes of the given frame, positioned
+     *         at its start.  Changes made through it are made in place.
+     */
+    public ByteBuffer frame(int frameNo) {
+        ByteBuffer slab = slabs[frameNo / framesPerSlab].duplicate();
+        int off = (frameNo % framesPerSlab) * frameSize;
+        slab.limit(off + frameSize);
+        slab.position(off);
+        return slab.slice();
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The on-disk format of the pages of a HeapFile.  A table's format is
+ * chosen when its HeapFile is created, e.g. with the {@code format=slotted}
+ * option of the catalog schema, and every page of the file has it.
+ *
+ * @see HeapFile#getPageFormat()
+ */
+public enum PageFormat {
+
+    /**
+     * Fixed-size slots, each string taking {@link Type#STRING_LEN} bytes.
+     *
+     * @see HeapPage
+     */
+    HEAP {
+        @Override
+        TuplePage decode(HeapPageId pid, byte[] data, int offset) throws IOException {
+            return HeapPage.fromBytes(pid, data, offset);
+        }
+
+        @Override
+        TuplePage decodeFrame(HeapPageId pid, ByteBuffer frame) throws IOException {
+            return HeapPage.fromFrame(pid, frame);
+        }
+
+        @Override
+        int capacity(TupleDesc td) {
+            return HeapPage.slotsPerPage(td);
+        }
+
+        @Override
+        int headerSize(TupleDesc td) {
+            return HeapPage.headerSize(td);
+        }
+
+        @Override
+        int freeSpace(TupleDesc td, byte[] header) {
+            return HeapPage.slotsPerPage(td) - SlotBitmap.count(header);
+        }
+    },
+
+    /**
+     * A slot directory and variable-length records.
+     *
+     * @see SlottedPage
+     */
+    SLOTTED {
+        @Override
+        TuplePage decode(HeapPageId pid, byte[] data, int offset) throws IOException {
+            return new SlottedPage(pid, data, offset);
+        }
+
+        @Override
+        TuplePage decodeFrame(HeapPageId pid, ByteBuffer frame) throws IOException {
+            //解码时就把记录拷了出来 不需要一直占着页框
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer src = frame.duplicate();
+            src.clear();
+            src.get(data);
+            return new SlottedPage(pid, data, 0);
+        }
+
+        @Override
+        int capacity(TupleDesc td) {
+            return BufferPool.getPageSize();
+        }
+
+        @Override
+        int headerSize(TupleDesc td) {
+            return SlottedPage.HEADER_SIZE;
+        }
+
+        @Override
+        int freeSpace(TupleDesc td, byte[] header) {
+            return SlottedPage.freeSpace(header);
+        }
+    };
+
+    /**
+     * Decode the {@link BufferPool#getPageSize()} bytes at offset in data.
+     * The bytes are not referenced after this returns.
+     */
+    abstract TuplePage decode(HeapPageId pid, byte[] data, int offset) throws IOException;
+
+    /**
+     * Decode a page from a buffer pool frame or a slice of a mapped file.
+     *
+     * @see HeapPage#fromFrame
+     */
+    abstract TuplePage decodeFrame(HeapPageId pid, ByteBuffer frame) throws IOException;
+
+    /** @return the room on an empty page, in the units of {@link TuplePage#getFreeSpace()} */
+    abstract int capacity(TupleDesc td);
+
+    /** @return the number of bytes at the start of a page that {@link #freeSpace} needs */
+    abstract int headerSize(TupleDesc td);
+
+    /** @return the room left on a page, from the first {@link #headerSize} bytes of the page */
+    abstract int freeSpace(TupleDesc td, byte[] header);
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Page-sized positional I/O on the file of one DbFile.
+ * <p>
+ * The file is opened once, on first use, and stays open for as long as the
+ * DbFile exists; reads use positional {@link FileChannel#read(ByteBuffer, long)}
+ * and never move the channel's position, so any number of threads can read
+ * at the same time.  Writes are serialized on the PageIO.  Short reads are
+ * retried until the page is complete or the end of the file is reached, and
+ * the part of a page past the end of the file reads as zeros.
+ * <p>
+ * The length of the file is read once and then kept up to date by the
+ * writes, so the file must not be changed behind the PageIO's back.
+ * {@link #buffer} hands out a page buffer per thread for callers that only
+ * need the bytes until they have been decoded.
+ * <p>
+ * {@link #mapped} maps the file read-only, in segments of up to
+ * {@link #SEGMENT_BYTES}, and hands out slices of the mapping instead of
+ * copying.  Writes through the channel show up in the mapping; when the
+ * file grows, only the segments past the old end are mapped again.
+ *
+ * @see HeapFile
+ */
+class PageIO {
+
+    private final File f;
+    private volatile FileChannel channel;
+    //文件长度 第一次用到时读取 之后由写操作维护
+    private volatile long length = -1;
+
+    /** Largest piece of the file mapped with a single {@link FileChannel#map}. */
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    /** The file mapped as it was at some length. */
+    private static final class Mapping {
+        final long length;
+        final int segmentBytes;
+        final MappedByteBuffer[] segments;
+
+        Mapping(long length, int segmentBytes, MappedByteBuffer[] segments) {
+            this.length = length;
+            this.segmentBytes = segmentBytes;
+            this.segments = segments;
+        }
+    }
+
+    private volatile Mapping mapping;
+
+    //每个线程复用一块页大小的缓冲区
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+
+    PageIO(File f) {
+        this.f = f;
+    }
+
+    /**
+     * @return a buffer of at least the given number of pages owned by the
+     *         calling thread; it is handed out again by the next call
+     */
+    static byte[] buffer(int pages) {
+        long size = (long) pages * BufferPool.getPageSize();
+        byte[] b = BUFFERS.get();
+        if (b == null || b.length < size || b.length % BufferPool.getPageSize() != 0) {
+            b = new byte[(int) size];
+            BUFFERS.set(b);
+        }
+        return b;
+    }
+
+    /** @return the length of the file in bytes */
+    long length() {
+        long len = length;
+        if (len < 0) {
+            synchronized (this) {
+                if (length < 0)
+                    length = f.length();
+                len = length;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Fill dst, from its position to its limit, with the bytes of the file
+     * starting at pos.  Whatever lies past the end of the file reads as
+     * zeros.
+     *
+     * @return the number of bytes that came from the file
+     */
+    int read(long pos, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        if (pos < length()) {
+            FileChannel ch = channel();
+            while (dst.hasRemaining() && ch.read(dst, pos + dst.position() - start) > 0) {
+            }
+        }
+        int n = dst.position() - start;
+        while (dst.hasRemaining())
+            dst.put((byte) 0);
+        return n;
+    }
+
+    /**
+     * Fill dsts, one after another, with the bytes of the file starting at
+     * pos, with one scattering read where the channel allows it.  Whatever
+     * lies past the end of the file reads as zeros.  Unlike the single
+     * buffer read, this moves the channel's position, so it is serialized
+     * with writes.
+     *
+     * @return the number of bytes that came from the file
+     */
+    synchronized long read(long pos, ByteBuffer[] dsts) throws IOException {
+        long n = 0;
+        if (pos < length()) {
+            FileChannel ch = channel();
+            ch.position(pos);
+            long r;
+            while (dsts[dsts.length - 1].hasRemaining() && (r = ch.read(dsts)) > 0)
+                n += r;
+        }
+        for (ByteBuffer dst : dsts) {
+            while (dst.hasRemaining())
+                dst.put((byte) 0);
+        }
+        return n;
+    }
+
+    /**
+     * Write srcs, one after another, starting at pos, with as few system
+     * calls as the channel allows.
+     */
+    synchronized void write(long pos, ByteBuffer[] srcs) throws IOException {
+        FileChannel ch = channel();
+        long remaining = 0;
+        for (ByteBuffer b : srcs)
+            remaining += b.remaining();
+        long end = pos + remaining;
+        ch.position(pos);
+        while (remaining > 0)
+            remaining -= ch.write(srcs);
+        if (end > length())
+            length = end;
+    }
+
+    /** Force the writes to the file to disk. */
+    void force() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null)
+            ch.force(false);
+    }
+
+    /**
+     * Return a read-only slice of the mapped file.  Segments are a multiple
+     * of len long, so a slice at a multiple of len, such as a page, never
+     * crosses a segment.
+     *
+     * @return the slice, or null if the range is not entirely inside the file
+     */
+    ByteBuffer mapped(long pos, int len) throws IOException {
+        if (pos < 0 || pos + len > length())
+            return null;
+        Mapping m = mapping;
+        if (m == null || pos + len > m.length || m.segmentBytes % len != 0)
+            m = remap(len);
+        int seg = (int) (pos / m.segmentBytes);
+        int off = (int) (pos % m.segmentBytes);
+        if (off + len > m.segments[seg].capacity())
+            return null;
+        ByteBuffer b = m.segments[seg].duplicate();
+        b.position(off);
+        b.limit(off + len);
+        return b.slice();
+    }
+
+    // Map the file up to its current length, keeping the full segments of the old mapping.
+    private synchronized Mapping remap(int len) throws IOException {
+        long fileLength = length();
+        Mapping old = mapping;
+        if (old != null && old.length >= fileLength && old.segmentBytes % len == 0)
+            return old;
+        int segmentBytes = SEGMENT_BYTES - SEGMENT_BYTES % len;
+        int n = (int) ((fileLength + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] segments = new MappedByteBuffer[n];
+        FileChannel ch = channel();
+        for (int i = 0; i < n; i++) {
+            long start = (long) i * segmentBytes;
+            long size = Math.min(segmentBytes, fileLength - start);
+            if (old != null && old.segmentBytes == segmentBytes && i < old.segments.length
+                    && old.segments[i].capacity() == size) {
+                segments[i] = old.segments[i];
+            } else {
+                segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        mapping = new Mapping(fileLength, segmentBytes, segments);
+        return mapping;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null) {
+                    try {
+                        ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    } catch (AccessDeniedException e) {
+                        //只读文件 写的时候再报错
+                        ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                    }
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+}
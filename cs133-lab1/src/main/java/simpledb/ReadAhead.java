@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+/**
+ * Asynchronous read-ahead for one sequential scan of a DbFile.
+ * <p>
+ * The scan asks for its pages through {@link #getPage}.  Once it has asked
+ * for a few consecutive pages, the next {@code window} pages are read on a
+ * background I/O thread, either into the buffer pool or into the scan's
+ * {@link ScanRing}, while the scan is still busy with the tuples of the
+ * current page.  A jump to a non-consecutive page cancels everything that was
+ * read ahead and starts the detection over.
+ * <p>
+ * The window adapts to the scan: it is the number of pages the scan consumes
+ * in the time it takes to read one page, plus one, so the reader never runs
+ * dry while the scan is fast, and a slow scan does not drag pages into the
+ * pool long before it needs them.  It is capped by a quarter of the table's
+ * pool partition, or by the size of the ring, so prefetched pages are not
+ * evicted (or overwritten) before they are used.
+ * <p>
+ * Once the window is wide enough, pages are read in extents of up to
+ * {@link #MAX_EXTENT} consecutive pages, each with one
+ * {@link BufferPool#prefetchPages} call, whenever half a window's worth of
+ * pages is missing ahead of the scan.
+ * <p>
+ * The extents of one scan are read one after another on a single worker at
+ * a time, in page order; different scans read in parallel.  Pages are
+ * prefetched without transaction locks and only the scan's own request for a
+ * page goes through {@link BufferPool#getPage}.
+ * <p>
+ * Memory-mapped files are not read ahead at all: the operating system
+ * already does, and their pages are not cached in the pool.
+ * <p>
+ * The page last returned to the scan stays pinned in the pool until the scan
+ * asks for the next one or closes, so its tuples can be used in place.  Pages
+ * that come from the ring need no pin: the ring never overwrites the frame
+ * the scan is reading.
+ */
+class ReadAhead {
+
+    /** Consecutive page requests after which a scan counts as sequential. */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+    static final int MAX_WINDOW = 64;
+    /** Most pages read ahead with a single request. */
+    static final int MAX_EXTENT = 16;
+
+    //所有扫描共用的后台I/O线程 空闲时自动退出
+    private static final ThreadPoolExecutor IO_EXECUTOR;
+    static {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        IO_EXECUTOR = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        IO_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /** An extent of pages that has been handed to the worker. */
+    private static final class Prefetch {
+        final int first;
+        final int last;
+        final FutureTask<Void> task;
+        volatile boolean skip;
+
+        Prefetch(int first, int last, FutureTask<Void> task) {
+            this.first = first;
+            this.last = last;
+            this.task = task;
+        }
+    }
+
+    private final DbFile file;
+    private final int numPages;
+    private final IntFunction<PageId> pageIds;
+    private final ScanRing ring;
+    private final BufferPool pool;
+    private final int maxWindow;
+    private final boolean mapped;
+
+    private int last = -1;
+    private int run = 0;
+    private int issuedUpTo = -1;
+    //已经交给后台线程的页 按页号排列
+    private final ArrayDeque<Prefetch> pending = new ArrayDeque<Prefetch>();
+    private final ConcurrentLinkedQueue<Prefetch> queue = new ConcurrentLinkedQueue<Prefetch>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    //扫描当前所在页的页框 页来自页环时为null
+    private BufferFrame pinned;
+
+    //扫描处理一页所用时间和读一页所用时间的滑动平均 单位纳秒
+    private long returnedAt = 0;
+    private double consumeNanos = 0;
+    private volatile double readNanos = 0;
+
+    /**
+     * @param file the file being scanned
+     * @param numPages the number of pages the scan reads; nothing past the
+     *                 last of them is read ahead
+     * @param pageIds maps a position in the scan to the id of the page of
+     *                file read there; the page number, unless the scan
+     *                skips pages
+     * @param ring the ring of a bulk read scan, or null to read ahead into
+     *             the buffer pool
+     */
+    ReadAhead(DbFile file, int numPages, IntFunction<PageId> pageIds, ScanRing ring) {
+        this.file = file;
+        this.numPages = numPages;
+        this.pageIds = pageIds;
+        this.ring = ring;
+        this.pool = Database.getBufferPool();
+        this.mapped = file.isMemoryMapped();
+        if (mapped) {
+            this.maxWindow = 0;
+        } else if (ring != null) {
+            //留出扫描正在使用的页和前一页
+            this.maxWindow = Math.min(MAX_WINDOW, ring.numPages() - 2);
+        } else {
+            this.maxWindow = Math.min(MAX_WINDOW, pool.capacityFor(pageIds.apply(0).getTableId()) / 4);
+        }
+    }
+
+    /** @return how many pages are currently read ahead of the scan */
+    int window() {
+        if (consumeNanos <= 0 || readNanos <= 0)
+            return Math.min(1, maxWindow);
+        int w = (int) Math.ceil(readNanos / consumeNanos) + 1;
+        return Math.max(1, Math.min(w, maxWindow));
+    }
+
+    /**
+     * Return a page of the scan, reading the pages after it ahead if the
+     * scan is sequential.
+     *
+     * @param tid the scanning transaction
+     * @param pageNo the position in the scan of the page it wants
+     */
+    Page getPage(TransactionId tid, int pageNo)
+        throws TransactionAbortedException, DbException {
+        long now = System.nanoTime();
+        if (pageNo == last + 1) {
+            run++;
+            if (returnedAt != 0)
+                consumeNanos = average(consumeNanos, now - returnedAt);
+        } else {
+            run = 1;
+            cancel();
+        }
+        last = pageNo;
+
+        //等后台线程读完这一页 再从缓存池或页环里取出
+        while (!pending.isEmpty() && pending.peekFirst().first <= pageNo) {
+            Prefetch p = pending.pollFirst();
+            if (p.last < pageNo)
+                p.skip = true;
+            await(p);
+        }
+        unpin();
+        PageId pid = pageIds.apply(pageNo);
+        Page page;
+        if (mapped) {
+            //映射文件的页不占堆外页框 不用pin
+            page = pool.getPage(tid, pid, Permissions.READ_ONLY);
+        } else {
+            BufferFrame frame = ring == null
+                    ? pool.pinFrame(tid, pid, Permissions.READ_ONLY)
+                    : pool.pinResident(pid);
+            page = frame != null ? frame.getPage() : pool.readFromRing(pid, pageNo, ring);
+            pinned = frame;
+        }
+
+        if (run >= SEQUENTIAL_THRESHOLD && maxWindow > 0) {
+            int window = window();
+            int upTo = Math.min(numPages - 1, pageNo + window);
+            int from = Math.max(issuedUpTo, pageNo) + 1;
+            //缺的页凑够半个窗口(或者到了表尾)再一起读
+            int extent = Math.max(1, Math.min(MAX_EXTENT, window / 2));
+            if (upTo - from + 1 >= extent || (upTo == numPages - 1 && from <= upTo)) {
+                for (; from <= upTo; from += extent)
+                    issue(from, Math.min(upTo, from + extent - 1));
+            }
+        }
+        returnedAt = System.nanoTime();
+        return page;
+    }
+
+    /**
+     * Stop reading ahead, wait for the page being read, if any, and release
+     * the scan's current page.
+     */
+    void close() {
+        cancel();
+        unpin();
+        last = -1;
+        run = 0;
+    }
+
+    private void unpin() {
+        if (pinned != null) {
+            pinned.unpin();
+            pinned = null;
+        }
+    }
+
+    private void cancel() {
+        for (Prefetch p : pending)
+            p.skip = true;
+        while (!pending.isEmpty())
+            await(pending.pollFirst());
+        issuedUpTo = -1;
+    }
+
+    private void issue(final int first, final int last) {
+        final List<PageId> pids = new ArrayList<PageId>(last - first + 1);
+        for (int p = first; p <= last; p++)
+            pids.add(pageIds.apply(p));
+        final Prefetch[] self = new Prefetch[1];
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            if (self[0].skip)
+                return null;
+            long start = System.nanoTime();
+            if (pids.size() == 1)
+                pool.prefetchPage(pids.get(0), first, ring);
+            else
+                pool.prefetchPages(pids, first, ring);
+            readNanos = average(readNanos, (System.nanoTime() - start) / pids.size());
+            return null;
+        });
+        self[0] = new Prefetch(first, last, task);
+        pending.addLast(self[0]);
+        issuedUpTo = last;
+        queue.add(self[0]);
+        if (draining.compareAndSet(false, true))
+            IO_EXECUTOR.execute(this::drain);
+    }
+
+    // runs on an I/O thread; only one drain of a scan runs at a time
+    private void drain() {
+        while (true) {
+            Prefetch p;
+            while ((p = queue.poll()) != null)
+                p.task.run();
+            draining.set(false);
+            if (queue.isEmpty() || !draining.compareAndSet(false, true))
+                return;
+        }
+    }
+
+    // a failed read ahead is not an error: the scan reads the page itself
+    private static void await(Prefetch p) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                p.task.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException | CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static double average(double avg, long sample) {
+        return avg == 0 ? sample : avg * 0.75 + sample * 0.25;
+    }
+}
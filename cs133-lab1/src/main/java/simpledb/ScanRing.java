@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small private ring of page frames used by a "bulk read" sequential scan.
+ * <p>
+ * A scan of a table that is larger than the buffer pool would otherwise push
+ * every other query's pages out of the pool, only to have its own pages
+ * evicted again before anybody reuses them.  Instead, pages that are not
+ * already resident are read into the scan's own ring and never enter the
+ * shared pool at all.  The n-th page the scan reads goes into frame
+ * n % numPages, overwriting the page that was read {@code numPages} pages
+ * earlier.  Frames go by position in the scan, not by page number, because
+ * a scan that skips pages reads page numbers with gaps between them.
+ * <p>
+ * A ring belongs to a single scan.  Pages handed out from the ring are only
+ * valid until the ring wraps around to their frame, so a scan must not hold
+ * on to more than a few of them.  The scan's {@link ReadAhead} may
+ * {@link #load} pages ahead of the scan on another thread; it never loads
+ * into the frame the scan is reading, and hands each such page over through a
+ * Future, which is what makes the frame's contents visible to the scan.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ * @see BufferPool#isBulkRead(int)
+ */
+public class ScanRing {
+
+    /** Number of frames in a ring unless the scan asks otherwise. */
+    public static final int DEFAULT_PAGES = 32;
+
+    private final ByteBuffer[] frames;
+    //预读进页框但还没有交给扫描的页
+    private final PageId[] loadedIds;
+    private final Page[] loaded;
+
+    /**
+     * @param numPages the number of frames in the ring; must be at least 2,
+     *                 so the page a scan is working on is not overwritten by
+     *                 the one it reads next
+     */
+    public ScanRing(int numPages) {
+        if (numPages < 2)
+            throw new IllegalArgumentException("a scan ring needs at least two frames");
+        frames = new ByteBuffer[numPages];
+        loadedIds = new PageId[numPages];
+        loaded = new Page[numPages];
+    }
+
+    /** @return the number of frames in this ring */
+    public int numPages() {
+        return frames.length;
+    }
+
+    /**
+     * Return a page from the ring: the copy read ahead by {@link #load} if
+     * there is one, otherwise the page is read into its frame now.
+     *
+     * @param pos the position of the page in the scan
+     */
+    Page read(DbFile file, PageId pid, int pos) {
+        int slot = slot(pos);
+        Page p = loaded[slot];
+        loaded[slot] = null;
+        if (p != null && pid.equals(loadedIds[slot]))
+            return p;
+        return readInto(slot, file, pid);
+    }
+
+    /** Read a page into its frame ahead of the scan; see {@link #read}. */
+    void load(DbFile file, PageId pid, int pos) {
+        int slot = slot(pos);
+        loaded[slot] = null;
+        Page p = readInto(slot, file, pid);
+        loadedIds[slot] = pid;
+        loaded[slot] = p;
+    }
+
+    private int slot(int pos) {
+        return Math.floorMod(pos, frames.length);
+    }
+
+    // Frames are only allocated as the ring fills up.
+    private Page readInto(int slot, DbFile file, PageId pid) {
+        ByteBuffer frame = frames[slot];
+        if (frame == null || frame.capacity() != BufferPool.getPageSize()) {
+            frame = ByteBuffer.allocate(BufferPool.getPageSize());
+            frames[slot] = frame;
+        }
+        return file.readPageInto(pid, frame);
+    }
+}
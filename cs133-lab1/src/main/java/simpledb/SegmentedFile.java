@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The pages of one table, split over segment files of a fixed size.
+ * <p>
+ * Segment 0 is the table's own file; segment i (i &gt; 0) is a file named
+ * after it with the suffix {@code .i}, which lives next to it or, if
+ * segment directories are given, in directory {@code (i - 1) % n} of them,
+ * so a large table can be spread over several disks.  Every segment but
+ * the last holds exactly {@link #getSegmentPages()} pages.  Each segment has
+ * its own {@link PageIO}, so reads and writes of different segments never
+ * wait for each other, and all offsets are 64-bit.
+ * <p>
+ * Segment files are created by the first write into them; a page in a
+ * segment (or past the end of a segment) that was never written reads as
+ * zeros, like a hole in a single file.
+ *
+ * @see HeapFile
+ */
+class SegmentedFile {
+
+    /** Default size of a segment file. */
+    static final long DEFAULT_SEGMENT_BYTES = 1L << 30;
+
+    private final File first;
+    private final File[] dirs;
+    private final long segmentBytes;
+    //已知的段 只会变长 protected by this when grown
+    private volatile PageIO[] segments;
+
+    /**
+     * @param first the file of segment 0
+     * @param segmentBytes the size of a segment file; rounded down to whole
+     *                     pages
+     * @param dirs the directories of the other segments; none to keep them
+     *             next to the first one
+     */
+    SegmentedFile(File first, long segmentBytes, File... dirs) {
+        this.first = first;
+        this.segmentBytes = segmentBytes;
+        this.dirs = dirs;
+        //找出已经存在的段文件
+        int n = 1;
+        while (segmentFile(n).exists())
+            n++;
+        PageIO[] segs = new PageIO[n];
+        for (int i = 0; i < n; i++)
+            segs[i] = new PageIO(segmentFile(i));
+        this.segments = segs;
+    }
+
+    /** @return the number of pages in a full segment */
+    int getSegmentPages() {
+        return (int) Math.max(1, segmentBytes / BufferPool.getPageSize());
+    }
+
+    /** @return the file that holds segment i */
+    File segmentFile(int i) {
+        if (i == 0)
+            return first;
+        File dir = dirs.length > 0 ? dirs[(i - 1) % dirs.length] : first.getAbsoluteFile().getParentFile();
+        return new File(dir, first.getName() + "." + i);
+    }
+
+    /** @return the number of pages up to the end of the last non-empty segment */
+    int numPages() {
+        PageIO[] segs = segments;
+        for (int i = segs.length - 1; i >= 0; i--) {
+            long len = segs[i].length();
+            if (len > 0)
+                return (int) ((long) i * getSegmentPages() + len / BufferPool.getPageSize());
+        }
+        return 0;
+    }
+
+    /** @return the latest modification time of the segment files */
+    long lastModified() {
+        long t = 0;
+        for (int i = 0; i < segments.length; i++)
+            t = Math.max(t, segmentFile(i).lastModified());
+        return t;
+    }
+
+    /**
+     * Read a page into dst, from its position to its limit.
+     *
+     * @see PageIO#read
+     */
+    void read(int pageNo, ByteBuffer dst) throws IOException {
+        PageIO seg = segment(pageNo, false);
+        if (seg == null) {
+            while (dst.hasRemaining())
+                dst.put((byte) 0);
+            return;
+        }
+        seg.read(offset(pageNo), dst);
+    }
+
+    /**
+     * Read pages with consecutive page numbers, starting at firstPage, into
+     * dsts, one page per buffer.  A run that crosses the end of a segment is
+     * split at the boundary.
+     *
+     * @see PageIO#read(long, ByteBuffer[])
+     */
+    void read(int firstPage, ByteBuffer[] dsts) throws IOException {
+        int segPages = getSegmentPages();
+        int done = 0;
+        while (done < dsts.length) {
+            int pageNo = firstPage + done;
+            int n = Math.min(dsts.length - done, segPages - pageNo % segPages);
+            ByteBuffer[] run = Arrays.copyOfRange(dsts, done, done + n);
+            PageIO seg = segment(pageNo, false);
+            if (seg != null) {
+                seg.read(offset(pageNo), run);
+            } else {
+                for (ByteBuffer dst : run) {
+                    while (dst.hasRemaining())
+                        dst.put((byte) 0);
+                }
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * @return a read-only slice of the mapped segment holding the page, or
+     *         null if the page is not entirely inside its segment file
+     * @see PageIO#mapped
+     */
+    ByteBuffer mapped(int pageNo) throws IOException {
+        PageIO seg = segment(pageNo, false);
+        return seg == null ? null : seg.mapped(offset(pageNo), BufferPool.getPageSize());
+    }
+
+    /**
+     * Write pages with consecutive page numbers, starting at firstPage.  A
+     * run that crosses the end of a segment is split at the boundary.
+     */
+    void write(int firstPage, ByteBuffer[] pages) throws IOException {
+        int segPages = getSegmentPages();
+        int done = 0;
+        while (done < pages.length) {
+            int pageNo = firstPage + done;
+            int n = Math.min(pages.length - done, segPages - pageNo % segPages);
+            ByteBuffer[] run = pages;
+            if (done > 0 || n < pages.length)
+                run = Arrays.copyOfRange(pages, done, done + n);
+            segment(pageNo, true).write(offset(pageNo), run);
+            done += n;
+        }
+    }
+
+    /** Force the writes to the segment files to disk. */
+    void force() throws IOException {
+        for (PageIO seg : segments)
+            seg.force();
+    }
+
+    private long offset(int pageNo) {
+        return (long) (pageNo % getSegmentPages()) * BufferPool.getPageSize();
+    }
+
+    // Returns null for a segment that does not exist yet, unless create is set.
+    private PageIO segment(int pageNo, boolean create) {
+        int i = pageNo / getSegmentPages();
+        PageIO[] segs = segments;
+        if (i < segs.length)
+            return segs[i];
+        if (!create)
+            return null;
+        synchronized (this) {
+            segs = segments;
+            if (i >= segs.length) {
+                PageIO[] grown = Arrays.copyOf(segs, i + 1);
+                for (int j = segs.length; j <= i; j++)
+                    grown[j] = new PageIO(segmentFile(j));
+                segments = grown;
+                segs = grown;
+            }
+            return segs[i];
+        }
+    }
+}
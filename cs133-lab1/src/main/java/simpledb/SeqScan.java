@@ -17,6 +17,8 @@ public class SeqScan implements DbIterator {
 
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    //只返回这些列 null表示所有列
+    private int[] columns;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -35,13 +37,206 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the columns of the
+     * table, e.g. those a query's select list, filters and joins refer to.
+     * A {@link ColumnarFile} reads only the pages of those columns; other
+     * files read whole tuples and drop the other fields.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the columns to return, as indexes into the table's
+     *            TupleDesc, or null for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples satisfying all
+     * of the given predicates, and only some of their columns.  A
+     * {@link HeapFile} skips the pages its zone map proves hold no such
+     * tuple, a {@link BTreeFile} only reads the leaves in the range of keys
+     * its predicates allow, and a {@link ColumnarFile} only reads the pages
+     * of the returned columns and of the predicates' fields; other files
+     * read every page.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the columns to return, as indexes into the table's
+     *            TupleDesc, or null for all of them
+     * @param predicates
+     *            the predicates, whose fields are indexes into the table's
+     *            TupleDesc (not into the returned columns), or null for none
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            List<Predicate> predicates) {
         // some code goes here
         this.tid=tid;
         this.tableAlias=tableAlias;
         this.tableid=tableid;
-        dbFileIterator= Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.columns=columns == null ? null : columns.clone();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        boolean filtered = predicates != null && !predicates.isEmpty();
+        if (!filtered && columns == null) {
+            dbFileIterator= file.iterator(tid);
+        } else if (!filtered && file instanceof ColumnarFile) {
+            dbFileIterator= ((ColumnarFile) file).iterator(tid, this.columns);
+        } else if (columns != null && file instanceof ColumnarFile) {
+            //列式存储只读返回的列和条件用到的列 条件改成按读出的列编号
+            int[] read = Arrays.copyOf(this.columns, this.columns.length + predicates.size());
+            int n = this.columns.length;
+            List<Predicate> preds = new ArrayList<Predicate>(predicates.size());
+            for (Predicate p : predicates) {
+                int pos = indexOf(read, n, p.getField());
+                if (pos < 0) {
+                    pos = n;
+                    read[n++] = p.getField();
+                }
+                preds.add(new Predicate(pos, p.getOp(), p.getOperand()));
+            }
+            read = Arrays.copyOf(read, n);
+            DbFileIterator rows = new Selection(((ColumnarFile) file).iterator(tid, read), preds);
+            if (n == this.columns.length) {
+                dbFileIterator= rows;
+            } else {
+                int[] first = new int[this.columns.length];
+                for (int i = 0; i < first.length; i++)
+                    first[i] = i;
+                dbFileIterator= new Projection(rows, first, file.getTupleDesc().project(this.columns));
+            }
+        } else {
+            //先在整行上过滤 再去掉不需要的列
+            DbFileIterator rows = file.iterator(tid);
+            if (filtered) {
+                List<Predicate> preds = new ArrayList<Predicate>(predicates);
+                if (file instanceof BTreeFile) {
+                    //键上的条件变成在索引上的范围扫描 返回的元组已经过滤好了
+                    rows = ((BTreeFile) file).iterator(tid, preds);
+                } else {
+                    if (file instanceof HeapFile) {
+                        rows = ((HeapFile) file).iterator(tid, preds);
+                    }
+                    rows = new Selection(rows, preds);
+                }
+            }
+            dbFileIterator= columns == null ? rows
+                    : new Projection(rows, this.columns, file.getTupleDesc().project(this.columns));
+        }
+    }
+
+    // The position of v among the first n entries of a, or -1.
+    private static int indexOf(int[] a, int n, int v) {
+        for (int i = 0; i < n; i++) {
+            if (a[i] == v)
+                return i;
+        }
+        return -1;
+    }
+
+    /** Returns only the tuples of a file that satisfy all of the predicates. */
+    private static class Selection implements DbFileIterator {
+        private final DbFileIterator child;
+        private final List<Predicate> predicates;
+        //下一个满足条件的元组 还没找过或者已经取走时为null
+        private Tuple next;
+
+        Selection(DbFileIterator child, List<Predicate> predicates) {
+            this.child = child;
+            this.predicates = predicates;
+        }
 
-//   todo     this.dbFileIterator=Database.getCatalog().getTupleDesc(tableid).iterator(tid);
+        public void open() throws DbException, TransactionAbortedException {
+            next = null;
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                boolean match = true;
+                for (Predicate p : predicates) {
+                    if (!p.filter(t)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match)
+                    next = t;
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more tuples");
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            next = null;
+            child.rewind();
+        }
+
+        public void close() {
+            next = null;
+            child.close();
+        }
+    }
+
+    /** Drops the fields of a row-oriented file's tuples that a scan does not return. */
+    private static class Projection implements DbFileIterator {
+        private final DbFileIterator child;
+        private final int[] columns;
+        private final TupleDesc td;
+
+        Projection(DbFileIterator child, int[] columns, TupleDesc td) {
+            this.child = child;
+            this.columns = columns;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            Tuple row = child.next();
+            Tuple t = new Tuple(td);
+            t.setRecordId(row.getRecordId());
+            for (int i = 0; i < columns.length; i++)
+                t.setField(i, row.getField(columns[i]));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            child.close();
+        }
     }
 
     /**
@@ -62,6 +257,14 @@ public class SeqScan implements DbIterator {
         return tableAlias;
     }
 
+    /**
+     * @return the columns this scan returns, as indexes into the table's
+     *         TupleDesc, or null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -108,6 +311,9 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc= Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null) {
+            tupleDesc = tupleDesc.project(columns);
+        }
         int num=tupleDesc.numFields();
         Type[] types = new Type[num];
         String[] names = new String[num];
@@ -43,8 +43,8 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            new BulkLoader(ts,BufferPool.getPageSize(),fieldSeparator)
+                        .load(sourceTxtFile,targetDatFile);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
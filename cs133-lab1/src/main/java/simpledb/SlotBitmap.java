@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The used-slot bitmap in the header of a page, kept as 64-bit words so that
+ * counting the used slots, walking them and finding a free one look at 64
+ * slots per step, with {@link Long#bitCount} and
+ * {@link Long#numberOfTrailingZeros}, instead of testing one bit at a time.
+ * <p>
+ * On a page the bitmap is stored as {@code ceil(numSlots / 8)} bytes, where
+ * slot i is bit {@code i % 8} (counting from the least significant bit) of
+ * byte {@code i / 8}.  Read little-endian, eight of those bytes are exactly
+ * one word of this bitmap.  The bits past the last slot are always clear.
+ *
+ * @see HeapPage
+ */
+final class SlotBitmap {
+
+    private final int numSlots;
+    private final long[] words;
+
+    /** Create a bitmap of numSlots slots, all free. */
+    SlotBitmap(int numSlots) {
+        this.numSlots = numSlots;
+        this.words = new long[(numSlots + 63) >>> 6];
+    }
+
+    /** @return the number of bytes the bitmap of numSlots slots takes on a page */
+    static int bytes(int numSlots) {
+        return (numSlots + 7) >>> 3;
+    }
+
+    /**
+     * @return the number of used slots recorded in a bitmap stored as
+     *         header bytes
+     */
+    static int count(byte[] header) {
+        ByteBuffer src = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int used = 0;
+        int i = 0;
+        for (; i + 8 <= header.length; i += 8)
+            used += Long.bitCount(src.getLong(i));
+        for (; i < header.length; i++)
+            used += Integer.bitCount(header[i] & 0xff);
+        return used;
+    }
+
+    /** Read the bitmap from its bytes at index in src. */
+    void read(ByteBuffer src, int index) {
+        int len = bytes(numSlots);
+        for (int w = 0; w < words.length; w++) {
+            int off = w << 3;
+            long word = 0;
+            if (off + 8 <= len) {
+                word = littleEndian(src, src.getLong(index + off));
+            } else {
+                for (int b = len - 1; b >= off; b--)
+                    word = (word << 8) | (src.get(index + b) & 0xffL);
+            }
+            words[w] = word;
+        }
+        //页头里多出来的位不算
+        if ((numSlots & 63) != 0)
+            words[words.length - 1] &= (1L << numSlots) - 1;
+    }
+
+    /** Write the bitmap as its bytes at index in dst, without moving its position. */
+    void write(ByteBuffer dst, int index) {
+        int len = bytes(numSlots);
+        for (int w = 0; w < words.length; w++) {
+            int off = w << 3;
+            long word = words[w];
+            if (off + 8 <= len) {
+                dst.putLong(index + off, littleEndian(dst, word));
+            } else {
+                for (int b = off; b < len; b++, word >>>= 8)
+                    dst.put(index + b, (byte) word);
+            }
+        }
+    }
+
+    // Convert between a word of the bitmap and a long read or written in the order of b.
+    private static long littleEndian(ByteBuffer b, long word) {
+        return b.order() == ByteOrder.LITTLE_ENDIAN ? word : Long.reverseBytes(word);
+    }
+
+    boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    void set(int i, boolean used) {
+        if (used)
+            words[i >>> 6] |= 1L << i;
+        else
+            words[i >>> 6] &= ~(1L << i);
+    }
+
+    /** @return the number of used slots */
+    int cardinality() {
+        int n = 0;
+        for (long w : words)
+            n += Long.bitCount(w);
+        return n;
+    }
+
+    /** @return the first used slot at or after from, or -1 if there is none */
+    int nextUsed(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == words.length)
+                return -1;
+            word = words[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /** @return the first free slot at or after from, or -1 if there is none */
+    int nextFree(int from) {
+        if (from >= numSlots)
+            return -1;
+        int w = from >>> 6;
+        long word = ~words[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == words.length)
+                return -1;
+            word = ~words[w];
+        }
+        int i = (w << 6) + Long.numberOfTrailingZeros(word);
+        return i < numSlots ? i : -1;
+    }
+}
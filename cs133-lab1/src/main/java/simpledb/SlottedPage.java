@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A page of a HeapFile in the {@link PageFormat#SLOTTED slotted format}:
+ * a slot directory at the front of the page and variable-length records
+ * packed at the back, so a string takes only as many bytes as it has
+ * characters.
+ * <p>
+ * The page starts with a header of two unsigned shorts, the number of
+ * slots in the directory and the number of bytes taken by records.  Each
+ * directory entry is two unsigned shorts, the offset of the slot's record
+ * in the page and its length; offset 0 marks an empty slot.  A record
+ * stores its fields in order: an int as 4 bytes, a string as an unsigned
+ * short length followed by that many bytes, at most {@link Type#STRING_LEN}.
+ * <p>
+ * Records are written from the end of the page towards the directory, in
+ * slot order, with no gaps; the free space is what lies between the
+ * directory and the first record, so the header alone tells how much room
+ * a page has left.  Pages must be smaller than 64 KB.  An all-zero page is
+ * an empty page.
+ *
+ * @see PageFormat
+ * @see HeapPage
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Size of the page header, in bytes. */
+    static final int HEADER_SIZE = 4;
+    /** Size of a slot directory entry, in bytes. */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    //按槽号存放的元组 空槽为null 末尾没有空槽
+    private final ArrayList<Tuple> slots = new ArrayList<Tuple>();
+    //所有记录占用的字节数
+    private int recordBytes;
+
+    //before image 第一次修改前才保存 为null时就是页面现在的内容
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a page from the {@link BufferPool#getPageSize()} bytes of data
+     * read from disk.  This is the constructor the {@link Page} interface
+     * requires; the recovery code uses it to read pages back from the log.
+     *
+     * @throws IOException if the bytes are not a slotted page of this table
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, 0);
+    }
+
+    /**
+     * Create a page from the {@link BufferPool#getPageSize()} bytes of data
+     * at offset, as read from disk.  The bytes are not referenced after
+     * this returns.
+     *
+     * @throws IOException if the bytes are not a slotted page of this table
+     */
+    public SlottedPage(HeapPageId id, byte[] data, int offset) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer page = ByteBuffer.wrap(data, offset, pageSize).slice();
+        int numSlots = page.getShort(0) & 0xffff;
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > pageSize)
+            throw new IOException("page " + id + " has a bad slot directory");
+        for (int i = 0; i < numSlots; i++) {
+            int entry = HEADER_SIZE + i * SLOT_SIZE;
+            int off = page.getShort(entry) & 0xffff;
+            int len = page.getShort(entry + 2) & 0xffff;
+            if (off == 0) {
+                slots.add(null);
+                continue;
+            }
+            if (off + len > pageSize)
+                throw new IOException("slot " + i + " of page " + id + " is out of the page");
+            Tuple t = readRecord(page, off);
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            recordBytes += len;
+        }
+        trimSlots();
+    }
+
+    /** @return the room left on a page, from its first {@link #HEADER_SIZE} bytes */
+    static int freeSpace(byte[] header) {
+        ByteBuffer b = ByteBuffer.wrap(header);
+        int numSlots = b.getShort(0) & 0xffff;
+        int recordBytes = b.getShort(2) & 0xffff;
+        return Math.max(0, BufferPool.getPageSize() - HEADER_SIZE - numSlots * SLOT_SIZE - recordBytes);
+    }
+
+    private Tuple readRecord(ByteBuffer page, int off) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(page.getInt(off)));
+                off += 4;
+            } else {
+                int len = page.getShort(off) & 0xffff;
+                byte[] bs = new byte[len];
+                ByteBuffer src = page.duplicate();
+                src.position(off + 2);
+                src.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+                off += 2 + len;
+            }
+        }
+        return t;
+    }
+
+    /** @return the number of bytes the record of t takes on a page */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + stringBytes((StringField) t.getField(j));
+        }
+        return size;
+    }
+
+    private static int stringBytes(StringField f) {
+        return Math.min(f.getValue().length(), Type.STRING_LEN);
+    }
+
+    private void trimSlots() {
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null)
+            slots.remove(slots.size() - 1);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        ByteBuffer page = ByteBuffer.wrap(data);
+        page.putShort(0, (short) slots.size());
+        page.putShort(2, (short) recordBytes);
+        //从页尾往前依次写记录
+        int end = pageSize;
+        for (int i = 0; i < slots.size(); i++) {
+            Tuple t = slots.get(i);
+            if (t == null)
+                continue;
+            int len = recordSize(t);
+            end -= len;
+            page.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            page.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) len);
+            page.position(end);
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.INT_TYPE) {
+                    page.putInt(((IntField) f).getValue());
+                } else {
+                    String s = ((StringField) f).getValue();
+                    int n = stringBytes((StringField) f);
+                    page.putShort((short) n);
+                    for (int k = 0; k < n; k++)
+                        page.put((byte) s.charAt(k));
+                }
+            }
+        }
+        return data;
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData != null ? oldData : getPageData();
+            }
+            return new SlottedPage(pid, oldDataRef, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = null;
+        }
+    }
+
+    // Copy-on-write: the before image is only taken when the page is first
+    // changed after it was read or committed.
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /** @return the number of free bytes between the slot directory and the records */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - slots.size() * SLOT_SIZE - recordBytes;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int need = recordSize(t);
+        if (slots.indexOf(null) < 0)
+            need += SLOT_SIZE;
+        return need <= getFreeSpace();
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        if (!hasRoomFor(t))
+            throw new DbException("page has no room for the tuple");
+        captureBeforeImage();
+        //优先复用空槽
+        int slot = slots.indexOf(null);
+        if (slot < 0) {
+            slot = slots.size();
+            slots.add(t);
+        } else {
+            slots.set(slot, t);
+        }
+        recordBytes += recordSize(t);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= slots.size() || slots.get(slot) == null)
+            throw new DbException("tuple slot is already empty");
+        captureBeforeImage();
+        recordBytes -= recordSize(slots.get(slot));
+        slots.set(slot, null);
+        trimSlots();
+        t.setRecordId(null);
+    }
+
+    /** @return the number of tuples on this page */
+    public int getNumTuples() {
+        int n = 0;
+        for (Tuple t : slots) {
+            if (t != null)
+                n++;
+        }
+        return n;
+    }
+
+    public Tuple getTuple(RecordId rid) {
+        int slot = rid.getTupleNumber();
+        if (!pid.equals(rid.getPageId()) || slot < 0)
+            throw new NoSuchElementException("record " + rid + " is not on page " + pid);
+        //目录末尾的空槽已经去掉了 修改是在页的监视器里做的
+        synchronized (this) {
+            return slot < slots.size() ? slots.get(slot) : null;
+        }
+    }
+
+    public Iterator<Tuple> iterator() {
+        List<Tuple> used;
+        //插入删除在页的监视器里改slots 在同一个监视器里拍快照
+        synchronized (this) {
+            used = new ArrayList<Tuple>(slots.size());
+            for (Tuple t : slots) {
+                if (t != null)
+                    used.add(t);
+            }
+        }
+        return Collections.unmodifiableList(used).iterator();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -12,6 +13,8 @@ public class StringField implements Field {
 	private final String value;
 	private final int maxSize;
 
+	private static final byte[] ZEROS = new byte[Type.STRING_LEN];
+
 	public String getValue() {
 		return value;
 	}
@@ -62,8 +65,30 @@ public class StringField implements Field {
 		}
 		dos.writeInt(s.length());
 		dos.writeBytes(s);
-		while (overflow-- > 0)
-			dos.write((byte) 0);
+		// pad in whole chunks rather than a byte at a time
+		while (overflow > 0) {
+			int n = Math.min(overflow, ZEROS.length);
+			dos.write(ZEROS, 0, n);
+			overflow -= n;
+		}
+	}
+
+	/**
+	 * Write this string to dst in the format of
+	 * {@link #serialize(DataOutputStream)}, without making a copy of it.
+	 */
+	public void serialize(ByteBuffer dst) {
+		int len = value.length();
+		dst.putInt(len);
+		// writeBytes keeps the low byte of each char
+		for (int i = 0; i < len; i++)
+			dst.put((byte) value.charAt(i));
+		int overflow = maxSize - len;
+		while (overflow > 0) {
+			int n = Math.min(overflow, ZEROS.length);
+			dst.put(ZEROS, 0, n);
+			overflow -= n;
+		}
 	}
 
 	/**
@@ -33,7 +33,7 @@ public class Tuple implements Serializable {
                 fields[i]=new IntField(0);
 
             }else if(td.getFieldType(i)==Type.STRING_TYPE){
-                fields[i]=new StringField(null,Type.STRING_LEN);
+                fields[i]=new StringField("",Type.STRING_LEN);
             }else{
                 throw new IllegalArgumentException("Unsupported field type");
             }
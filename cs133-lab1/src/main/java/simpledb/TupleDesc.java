@@ -12,6 +12,8 @@ public class TupleDesc implements Serializable  {
      * A help class to facilitate organizing the information of each field
      * */
     private TDItem[] TDItems;
+    //每个字段的偏移 构造时算好 编码页面时不用每次再加一遍
+    private int[] offsets;
     public static class TDItem implements Serializable {
 
         private static final long serialVersionUID = 1L;
@@ -83,6 +85,7 @@ public class TupleDesc implements Serializable  {
         for (int i = 0; i < typeAr.length; i++) {
             TDItems[i]=new TDItem(typeAr[i],fieldAr[i]);
         }
+        offsets = computeOffsets();
     }
 
     /**
@@ -99,6 +102,16 @@ public class TupleDesc implements Serializable  {
         for (int i = 0; i < typeAr.length; i++) {
             TDItems[i]=new TDItem(typeAr[i],null);
         }
+        offsets = computeOffsets();
+    }
+
+    //offsets[i]是第i个字段在记录里的字节偏移 最后一项是整条记录的长度
+    private int[] computeOffsets() {
+        int[] off = new int[TDItems.length + 1];
+        for (int i = 0; i < TDItems.length; i++) {
+            off[i + 1] = off[i] + TDItems[i].fieldType.getSizeInBytes();
+        }
+        return off;
     }
 
     /**
@@ -177,11 +190,20 @@ public class TupleDesc implements Serializable  {
      */
     public int getSizeInBytes() {
         // some code goes here
-        int sum=0;
-        for (int i = 0; i < numFields(); i++) {
-            sum+=TDItems[i].fieldType.getSizeInBytes();
+        return offsets[TDItems.length];
+    }
+
+    /**
+     * @return the offset, in bytes, of the ith field from the start of a
+     *         serialized tuple of this TupleDesc
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if(i<0 || i>=numFields()){
+            throw new NoSuchElementException("i不是合法的索引");
         }
-        return sum;
+        return offsets[i];
     }
 
     /**
@@ -212,6 +234,26 @@ public class TupleDesc implements Serializable  {
         return new TupleDesc(types,strings);
     }
 
+    /**
+     * Make a TupleDesc of some of the fields of this one.
+     *
+     * @param fields
+     *            the indexes of the fields to keep, in the order they
+     *            should have in the new TupleDesc
+     * @return the new TupleDesc
+     * @throws NoSuchElementException
+     *             if an index is not a valid field reference.
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] strings = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = getFieldType(fields[i]);
+            strings[i] = getFieldName(fields[i]);
+        }
+        return new TupleDesc(types,strings);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
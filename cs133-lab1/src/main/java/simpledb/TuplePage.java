@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: a Page that holds tuples of the file's schema, in
+ * one of the {@link PageFormat page formats}.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * @return the tuple stored at rid, or null if its slot on this page is
+     *         empty
+     * @throws java.util.NoSuchElementException if rid is not on this page
+     */
+    public Tuple getTuple(RecordId rid);
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page has no room for the tuple or the
+     *         tupledesc is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page; the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the room left on this page, in the units of
+     *         {@link PageFormat#capacity}
+     */
+    public int getFreeSpace();
+
+    /** @return true if {@link #insertTuple} would find room for t */
+    public boolean hasRoomFor(Tuple t);
+}
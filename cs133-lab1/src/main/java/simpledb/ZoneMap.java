@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps the smallest and the largest value of each integer column on each
+ * page of a HeapFile, so a scan with a predicate like {@code id > 1000000}
+ * can skip the pages that cannot hold a match.
+ * <p>
+ * A page's zone may be wider than its values, never narrower: an insert
+ * widens the zone of its page right away if the map is loaded, while a
+ * delete only narrows it once the page is written, when its zone is
+ * recomputed from the written tuples.  A page inserted into before the map
+ * was loaded has its zone forgotten when the map is loaded.  A page with no tuples has an empty zone and never matches; a
+ * page the map knows nothing about, such as one added since the map was
+ * loaded, always may.
+ * <p>
+ * The map is saved next to the table's file, with the suffix {@code .zm},
+ * at each checkpoint, together with the number of pages and the
+ * modification time of the file.  If either no longer matches when
+ * the map is loaded, e.g. because the process stopped between a write and
+ * the save or the file was replaced, the map is rebuilt from the pages.
+ *
+ * @see HeapFile#iterator(TransactionId, List)
+ */
+class ZoneMap {
+
+    private static final int MAGIC = 0x5a4f4e45;   // "ZONE"
+
+    //整数列的下标
+    private final int[] columns;
+    //第pgNo页第j个整数列的范围在[pgNo * columns.length + j]
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+    private int numPages;
+    //上次保存以来有没有改过 以及保存时表文件的修改时间
+    private boolean dirty;
+    private long savedModified = -1;
+
+    /** An empty map of the integer columns of td. */
+    ZoneMap(TupleDesc td) {
+        int n = 0;
+        int[] cols = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                cols[n++] = i;
+        }
+        this.columns = Arrays.copyOf(cols, n);
+    }
+
+    /** @return the number of integer columns in the map */
+    int numColumns() {
+        return columns.length;
+    }
+
+    /** @return the number of pages in the map */
+    synchronized int numPages() {
+        return numPages;
+    }
+
+    // Grow the map up to pgNo; the new pages are unknown, so their zones cover everything.
+    private void ensure(int pgNo) {
+        if (pgNo < numPages)
+            return;
+        int size = (pgNo + 1) * columns.length;
+        if (size > mins.length) {
+            int cap = Math.max(size, mins.length * 2);
+            mins = Arrays.copyOf(mins, cap);
+            maxs = Arrays.copyOf(maxs, cap);
+        }
+        Arrays.fill(mins, numPages * columns.length, size, Integer.MIN_VALUE);
+        Arrays.fill(maxs, numPages * columns.length, size, Integer.MAX_VALUE);
+        numPages = pgNo + 1;
+    }
+
+    /** Widen the zone of page pgNo to include t. */
+    synchronized void include(int pgNo, Tuple t) {
+        ensure(pgNo);
+        dirty = true;
+        int base = pgNo * columns.length;
+        for (int j = 0; j < columns.length; j++) {
+            int v = ((IntField) t.getField(columns[j])).getValue();
+            mins[base + j] = Math.min(mins[base + j], v);
+            maxs[base + j] = Math.max(maxs[base + j], v);
+        }
+    }
+
+    /** Set the zone of page pgNo to exactly the tuples on page. */
+    synchronized void reset(int pgNo, TuplePage page) {
+        ensure(pgNo);
+        dirty = true;
+        int base = pgNo * columns.length;
+        Arrays.fill(mins, base, base + columns.length, Integer.MAX_VALUE);
+        Arrays.fill(maxs, base, base + columns.length, Integer.MIN_VALUE);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            include(pgNo, it.next());
+    }
+
+    /** Forget the zone of page pgNo, so it always may match until it is reset. */
+    synchronized void forget(int pgNo) {
+        ensure(pgNo);
+        dirty = true;
+        int base = pgNo * columns.length;
+        Arrays.fill(mins, base, base + columns.length, Integer.MIN_VALUE);
+        Arrays.fill(maxs, base, base + columns.length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return false if the zone map proves that no tuple on page pgNo
+     *         satisfies all of the predicates
+     */
+    synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        if (pgNo >= numPages)
+            return true;
+        int base = pgNo * columns.length;
+        for (Predicate p : predicates) {
+            int j = Arrays.binarySearch(columns, p.getField());
+            if (j < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            if (!mayMatch(mins[base + j], maxs[base + j], p.getOp(), v))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean mayMatch(int min, int max, Predicate.Op op, int v) {
+        if (min > max)
+            return false;   //空页
+        switch (op) {
+        case EQUALS:
+            return min <= v && v <= max;
+        case GREATER_THAN:
+            return max > v;
+        case GREATER_THAN_OR_EQ:
+            return max >= v;
+        case LESS_THAN:
+            return min < v;
+        case LESS_THAN_OR_EQ:
+            return min <= v;
+        case NOT_EQUALS:
+            return min != v || max != v;
+        default:
+            return true;
+        }
+    }
+
+    /** @return the file the map of the table stored in f is saved in */
+    static File fileFor(File f) {
+        return new File(f.getPath() + ".zm");
+    }
+
+    /**
+     * Save the map to f, unless neither the map nor the table's file
+     * changed since it was loaded or last saved.
+     *
+     * @param filePages the number of pages of the table's file
+     * @param modified the modification time of the table's file
+     */
+    synchronized void save(File f, int filePages, long modified) throws IOException {
+        if (!dirty && modified == savedModified)
+            return;
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(filePages);
+            out.writeLong(modified);
+            out.writeInt(columns.length);
+            out.writeInt(numPages);
+            for (int i = 0; i < numPages * columns.length; i++) {
+                out.writeInt(mins[i]);
+                out.writeInt(maxs[i]);
+            }
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("could not replace " + f);
+        }
+        dirty = false;
+        savedModified = modified;
+    }
+
+    /**
+     * Load the map saved at f.
+     *
+     * @return the map, or null if there is no map at f that was saved for
+     *         the table's file as it is now
+     */
+    static ZoneMap load(File f, TupleDesc td, int filePages, long modified) {
+        if (!f.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            ZoneMap map = new ZoneMap(td);
+            if (in.readInt() != MAGIC || in.readInt() != filePages || in.readLong() != modified
+                    || in.readInt() != map.columns.length)
+                return null;
+            int n = in.readInt();
+            if (n > 0)
+                map.ensure(n - 1);
+            for (int i = 0; i < n * map.columns.length; i++) {
+                map.mins[i] = in.readInt();
+                map.maxs[i] = in.readInt();
+            }
+            map.dirty = false;
+            map.savedModified = modified;
+            return map;
+        } catch (IOException e) {
+            //坏掉的映射 重新构建
+            return null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final int KEYS = 1000;
+
+    private File file;
+    private BTreeFile tree;
+    // 每个键对应的第二列 键有重复
+    private List<int[]> rows;
+
+    private BTreeFile open() {
+        BTreeFile f = new BTreeFile(file, Utility.getTupleDesc(2), 0);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    @Before public void createTree() throws Exception {
+        // small pages, so the tree is a few levels deep
+        BufferPool.setPageSize(512);
+        Database.resetBufferPool(1000);
+        file = File.createTempFile("btree", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        tree = open();
+
+        Random r = new Random(42);
+        rows = new ArrayList<int[]>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            int[] row = { r.nextInt(KEYS), i };
+            rows.add(row);
+            Database.getBufferPool().insertTuple(tid, tree.getId(), Utility.getHeapTuple(row));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @After public void resetPageSize() throws Exception {
+        BufferPool.resetPageSize(4096);
+        Database.reset();
+    }
+
+    private List<Tuple> drain(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    private int expected(Predicate.Op op, int value) {
+        int n = 0;
+        for (int[] row : rows) {
+            if (new IntField(row[0]).compare(op, new IntField(value)))
+                n++;
+        }
+        return n;
+    }
+
+    /** A full scan returns every tuple, in key order. */
+    @Test public void scanInKeyOrder() throws Exception {
+        List<Tuple> tuples = drain(tree.iterator(new TransactionId()));
+        assertEquals(ROWS, tuples.size());
+        for (int i = 1; i < tuples.size(); i++)
+            assertTrue(key(tuples.get(i - 1)) <= key(tuples.get(i)));
+        // a leaf holds 62 tuples here, so the root is at least two levels up
+        assertTrue(tree.numPages() > ROWS / 62 + 3);
+    }
+
+    @Test public void pointAndRangeLookups() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int v : new int[] { -1, 0, 17, 500, 999, 1000 }) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                    Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                    Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+                Predicate p = new Predicate(0, op, new IntField(v));
+                assertEquals(op + " " + v, expected(op, v), count(new IndexScan(tid, tree.getId(), "t", p)));
+            }
+        }
+
+        // a filtered SeqScan over the tree uses the index too
+        List<Predicate> preds = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(200)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(ROWS / 2)));
+        int n = 0;
+        for (int[] row : rows) {
+            if (row[0] >= 100 && row[0] < 200 && row[1] < ROWS / 2)
+                n++;
+        }
+        assertEquals(n, count(new SeqScan(tid, tree.getId(), "t", null, preds)));
+    }
+
+    @Test(expected = DbException.class) public void indexScanNeedsKey() throws Exception {
+        new IndexScan(new TransactionId(), tree.getId(), "t",
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(1)));
+    }
+
+    /** Deletes find their tuple even after later splits moved it to another leaf. */
+    @Test public void deleteTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = drain(tree.iterator(tid));
+        int deleted = 0;
+        for (int i = 0; i < tuples.size(); i += 2) {
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+            deleted++;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> left = drain(tree.iterator(tid));
+        assertEquals(ROWS - deleted, left.size());
+        Set<Integer> seconds = new HashSet<Integer>();
+        for (Tuple t : left)
+            seconds.add(((IntField) t.getField(1)).getValue());
+        for (int i = 1; i < tuples.size(); i += 2)
+            assertTrue(seconds.contains(((IntField) tuples.get(i).getField(1)).getValue()));
+
+        Tuple missing = Utility.getHeapTuple(new int[] { 5, -1 });
+        missing.setRecordId(left.get(0).getRecordId());
+        try {
+            Database.getBufferPool().deleteTuple(tid, missing);
+            fail("expected a DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /** An abort undoes the splits along with the inserts. */
+    @Test public void abortRestoresTree() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, tree.getId(), Utility.getHeapTuple(new int[] { 7, -i }));
+        assertEquals(expected(Predicate.Op.EQUALS, 7) + 500,
+                drain(tree.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))).size());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(ROWS, drain(tree.iterator(new TransactionId())).size());
+    }
+
+    @Test public void treeSurvivesReopen() throws Exception {
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(1000);
+        tree = open();
+        TransactionId tid = new TransactionId();
+        assertEquals(ROWS, drain(tree.iterator(tid)).size());
+        assertEquals(expected(Predicate.Op.EQUALS, 500),
+                drain(tree.indexIterator(tid, Predicate.Op.EQUALS, new IntField(500))).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BackgroundWriterTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 8;
+
+    /** Records the page numbers of every writePages call. */
+    static class RecordingHeapFile extends HeapFile {
+        final List<List<Integer>> writes = Collections.synchronizedList(new ArrayList<List<Integer>>());
+
+        RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws java.io.IOException {
+            List<Integer> pgNos = new ArrayList<Integer>();
+            for (Page p : pages)
+                pgNos.add(p.getId().getPageNumber());
+            writes.add(pgNos);
+            super.writePages(pages);
+        }
+
+        int pagesWritten() {
+            int n = 0;
+            synchronized (writes) {
+                for (List<Integer> w : writes)
+                    n += w.size();
+            }
+            return n;
+        }
+    }
+
+    private RecordingHeapFile table;
+
+    @Before public void createTable() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, null);
+        table = new RecordingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    private Page dirty(TransactionId tid, int pgNo) throws Exception {
+        Page p = Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), pgNo), Permissions.READ_WRITE);
+        p.markDirty(true, tid);
+        return p;
+    }
+
+    private void awaitWrites(RecordingHeapFile f, int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (f.pagesWritten() < pages && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+    }
+
+    /** Pages written out of order, with gaps, land at the right offsets. */
+    @Test public void writePagesRoundTrip() throws Exception {
+        File copy = File.createTempFile("writer", ".dat");
+        copy.deleteOnExit();
+        HeapFile target = new HeapFile(copy, Utility.getTupleDesc(1));
+        List<Page> pages = new ArrayList<Page>();
+        for (int i : new int[] { 5, 0, 7, 1, 2, 6, 4, 3 })
+            pages.add(table.readPage(new HeapPageId(table.getId(), i)));
+        target.writePages(pages.subList(0, 3));
+        target.writePages(pages.subList(3, pages.size()));
+        assertArrayEquals(Files.readAllBytes(table.getFile().toPath()), Files.readAllBytes(copy.toPath()));
+    }
+
+    /** Committed pages are written in the background, sorted and in one call. */
+    @Test public void commitQueuesSortedWrite() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> pages = new ArrayList<Page>();
+        for (int i : new int[] { 4, 2, 7, 3 })
+            pages.add(dirty(tid, i));
+        Database.getBufferPool().transactionComplete(tid, true);
+        assertEquals(0, table.pagesWritten());
+
+        awaitWrites(table, 4);
+        assertEquals(Collections.singletonList(Arrays.asList(2, 3, 4, 7)), table.writes);
+        // pages are marked clean once the write has returned
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Page p : pages) {
+            while (p.isDirty() != null && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertNull(p.isDirty());
+        }
+    }
+
+    /** The writer keeps eviction from failing when committed pages fill the pool. */
+    @Test public void evictsCommittedPages() throws Exception {
+        Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            dirty(tid, i);
+        Database.getBufferPool().transactionComplete(tid, true);
+
+        TransactionId reader = new TransactionId();
+        for (int i = 4; i < PAGES; i++)
+            Database.getBufferPool().getPage(reader, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        awaitWrites(table, 4);
+        assertEquals(4, table.pagesWritten());
+    }
+
+    /** Uncommitted pages are never evicted. */
+    @Test(expected = DbException.class) public void neverEvictsUncommittedPages() throws Exception {
+        Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 4; i++)
+            dirty(tid, i);
+        Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 4), Permissions.READ_ONLY);
+    }
+
+    /** An aborted transaction's pages are restored and never written. */
+    @Test public void abortRestoresPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Page p = dirty(tid, 1);
+        Database.getBufferPool().transactionComplete(tid, false);
+        Page restored = Database.getBufferPool().getPage(new TransactionId(), p.getId(), Permissions.READ_ONLY);
+        assertNull(restored.isDirty());
+        assertArrayEquals(p.getPageData(), restored.getPageData());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, table.pagesWritten());
+    }
+
+    /** flushAllPages writes uncommitted pages too, coalesced per file. */
+    @Test public void flushAllPagesCoalesces() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = PAGES - 1; i >= 0; i--)
+            dirty(tid, i);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, table.writes.size());
+        assertEquals(PAGES, table.pagesWritten());
+        assertNull(Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY).isDirty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BackgroundWriterTest.class);
+    }
+}
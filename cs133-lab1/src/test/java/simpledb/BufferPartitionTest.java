@@ -0,0 +1,118 @@
+package simpledb;
+
+import simpledb.systemtest.InstrumentedHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPartitionTest extends SimpleDbTestBase {
+
+    private InstrumentedHeapFile createTable(int pages, String partition) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.getCatalog().setPartition(table.getId(), partition);
+        return table;
+    }
+
+    private void readPages(HeapFile table, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+    }
+
+    /** Loading a big table into "bulk" leaves the "hot" partition alone. */
+    @Test public void bulkLoadKeepsHotPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20);
+        pool.addPartition("hot", 4, 10);
+        pool.addPartition("bulk", 0, 8);
+        InstrumentedHeapFile hot = createTable(4, "hot");
+        InstrumentedHeapFile bulk = createTable(60, "bulk");
+
+        readPages(hot, 0, 4);
+        readPages(bulk, 0, 60);
+        assertEquals(8, pool.getPartitionPages("bulk"));
+        assertEquals(4, pool.getPartitionPages("hot"));
+
+        readPages(hot, 0, 4);
+        assertEquals(4, hot.readCount);
+        assertEquals(60, bulk.readCount);
+    }
+
+    /** A partition below its maximum takes pages from the others' surplus. */
+    @Test public void minimumIsReclaimed() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        pool.addPartition("hot", 4, 10);
+        InstrumentedHeapFile plain = createTable(12, BufferPool.DEFAULT_PARTITION);
+        InstrumentedHeapFile hot = createTable(6, "hot");
+
+        readPages(plain, 0, 12);
+        assertEquals(10, pool.getPartitionPages(BufferPool.DEFAULT_PARTITION));
+        readPages(hot, 0, 6);
+        // hot grew past its minimum at the expense of the default partition
+        assertEquals(6, pool.getPartitionPages("hot"));
+        assertEquals(4, pool.getPartitionPages(BufferPool.DEFAULT_PARTITION));
+
+        // default pages do not push hot below its minimum
+        readPages(plain, 0, 12);
+        assertEquals(4, pool.getPartitionPages("hot"));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void minimumsMustFit() {
+        BufferPool pool = Database.resetBufferPool(10);
+        pool.addPartition("a", 6, 10);
+        pool.addPartition("b", 6, 10);
+    }
+
+    @Test public void catalogPartitionOption() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        File schema = new File(dir, "catalog.txt");
+        PrintWriter out = new PrintWriter(schema);
+        out.println("lookup (id int pk, v int) partition=hot");
+        out.println("facts (id int)");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertEquals("hot", c.getPartition(c.getTableId("lookup")));
+        assertEquals(BufferPool.DEFAULT_PARTITION, c.getPartition(c.getTableId("facts")));
+        schema.delete();
+        dir.delete();
+    }
+
+    /** The hottest pages saved before a restart are read back into a fresh pool. */
+    @Test public void warmRestartLoadsHotPages() throws Exception {
+        Database.resetBufferPool(6);
+        InstrumentedHeapFile table = createTable(12, BufferPool.DEFAULT_PARTITION);
+        readPages(table, 0, 6);
+        readPages(table, 3, 6);
+        readPages(table, 3, 6);
+        File hot = File.createTempFile("hot", ".pages");
+        hot.deleteOnExit();
+        Database.getBufferPool().saveHotPages(hot, 3);
+
+        BufferPool pool = Database.resetBufferPool(6);
+        table.readCount = 0;
+        assertEquals(3, pool.loadHotPages(hot));
+        assertEquals(3, table.readCount);
+        readPages(table, 3, 6);
+        assertEquals(3, table.readCount);
+        assertEquals(0, pool.loadHotPages(hot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPartitionTest.class);
+    }
+}
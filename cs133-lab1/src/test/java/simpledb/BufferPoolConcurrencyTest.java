@@ -0,0 +1,291 @@
+package simpledb;
+
+import simpledb.systemtest.InstrumentedHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /** Counts reads and makes each of them slow enough for misses to pile up. */
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger();
+        final Set<Thread> readers = ConcurrentHashMap.newKeySet();
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            slowDown();
+            return super.readPage(pid);
+        }
+
+        @Override
+        public Page readPageInto(PageId pid, java.nio.ByteBuffer frame) {
+            slowDown();
+            return super.readPageInto(pid, frame);
+        }
+
+        @Override
+        public List<Page> readPages(List<PageId> pids) {
+            for (int i = 0; i < pids.size(); i++)
+                slowDown();
+            return super.readPages(pids);
+        }
+
+        private void slowDown() {
+            readCount.incrementAndGet();
+            readers.add(Thread.currentThread());
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private SlowHeapFile table;
+
+    @Before public void createTable() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 4, 1000, null, null);
+        table = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    private List<Page> fetchConcurrently(final List<PageId> pids) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<Page>> results = new ArrayList<Future<Page>>();
+        for (int i = 0; i < THREADS; i++) {
+            final PageId pid = pids.get(i % pids.size());
+            results.add(pool.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    start.await();
+                    return Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                }
+            }));
+        }
+        List<Page> pages = new ArrayList<Page>();
+        for (Future<Page> r : results)
+            pages.add(r.get(10, TimeUnit.SECONDS));
+        pool.shutdown();
+        return pages;
+    }
+
+    /** N threads missing on the same page trigger exactly one read. */
+    @Test public void singleFlightLoad() throws Exception {
+        PageId pid = new HeapPageId(table.getId(), 0);
+        List<Page> pages = fetchConcurrently(Collections.singletonList(pid));
+        assertEquals(1, table.readCount.get());
+        for (Page p : pages)
+            assertSame(pages.get(0), p);
+    }
+
+    /** Misses on different pages do not wait for each other. */
+    @Test public void distinctPagesLoadInParallel() throws Exception {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 4; i++)
+            pids.add(new HeapPageId(table.getId(), i));
+        long start = System.nanoTime();
+        List<Page> pages = fetchConcurrently(pids);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(4, table.readCount.get());
+        for (int i = 0; i < THREADS; i++)
+            assertEquals(pids.get(i % 4), pages.get(i).getId());
+        assertTrue("reads were serialized: " + elapsedMs + " ms", elapsedMs < 4 * 50);
+    }
+
+    /** Concurrent misses never push the pool past its capacity. */
+    @Test public void evictsUnderConcurrentMisses() throws Exception {
+        Database.resetBufferPool(2);
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 4; i++)
+            pids.add(new HeapPageId(table.getId(), i));
+        List<Page> pages = fetchConcurrently(pids);
+        for (int i = 0; i < THREADS; i++)
+            assertEquals(pids.get(i % 4), pages.get(i).getId());
+        int reads = table.readCount.get();
+        assertTrue(reads >= 4);
+        // at most two of the four pages can still be cached
+        for (PageId pid : pids)
+            Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertTrue(table.readCount.get() >= reads + 2);
+    }
+
+    /**
+     * Scans a table whose reads take as long as processing a page; with
+     * read-ahead, disk reads overlap the processing of earlier pages.
+     */
+    private void checkReadAheadOverlapsScan(boolean bulk) throws Exception {
+        final int PAGES = 10;
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        if (bulk)
+            Database.getBufferPool().setBulkReadFraction(0.1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        SlowHeapFile slow = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        assertEquals(bulk, Database.getBufferPool().isBulkRead(slow.numPages()));
+
+        long start = System.nanoTime();
+        DbFileIterator it = slow.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(tuples.get(count), SystemTestUtil.tupleToList(it.next()));
+            if (++count % 992 == 0)
+                Thread.sleep(50);
+        }
+        it.close();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(tuples.size(), count);
+        assertEquals(PAGES, slow.readCount.get());
+        assertTrue("nothing was read ahead", slow.readers.size() > 1);
+        assertTrue("reads did not overlap the scan: " + elapsedMs + " ms", elapsedMs < PAGES * 100 * 85 / 100);
+    }
+
+    @Test public void readAheadOverlapsScan() throws Exception {
+        checkReadAheadOverlapsScan(false);
+    }
+
+    @Test public void readAheadOverlapsBulkScan() throws Exception {
+        checkReadAheadOverlapsScan(true);
+    }
+
+    private InstrumentedHeapFile createTable(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, null);
+        InstrumentedHeapFile t = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(t, SystemTestUtil.getUUID());
+        return t;
+    }
+
+    private static void readPages(HeapFile table, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+    }
+
+    private static int residentPages(BufferPool pool) throws InterruptedException {
+        // the surplus is evicted in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPartitionPages(BufferPool.DEFAULT_PARTITION) > pool.getNumPages()
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        return pool.getPartitionPages(BufferPool.DEFAULT_PARTITION);
+    }
+
+    /** Growing the pool keeps what is cached and makes room for more. */
+    @Test public void growKeepsCache() throws Exception {
+        BufferPool pool = Database.resetBufferPool(10);
+        InstrumentedHeapFile t = createTable(20);
+        readPages(t, 0, 10);
+        pool.resize(20);
+        readPages(t, 10, 20);
+        readPages(t, 0, 20);
+        assertEquals(20, t.readCount);
+    }
+
+    /** Shrinking evicts the surplus and keeps the rest cached. */
+    @Test public void shrinkEvictsSurplus() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20);
+        InstrumentedHeapFile t = createTable(20);
+        readPages(t, 0, 20);
+        pool.resize(5);
+        assertEquals(5, residentPages(pool));
+        int reads = t.readCount;
+        // the most recently read pages are still there
+        readPages(t, 15, 20);
+        assertTrue(t.readCount - reads < 5);
+    }
+
+    /** Resizing back and forth under concurrent readers never loses a page. */
+    @Test public void resizeUnderLoad() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(16);
+        final InstrumentedHeapFile t = createTable(32);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<Future<?>>();
+        final long end = System.currentTimeMillis() + 300;
+        for (int i = 0; i < 4; i++) {
+            final int seed = i;
+            results.add(readers.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    Random r = new Random(seed);
+                    while (System.currentTimeMillis() < end) {
+                        int pgNo = r.nextInt(32);
+                        Page p = Database.getBufferPool().getPage(new TransactionId(),
+                                new HeapPageId(t.getId(), pgNo), Permissions.READ_ONLY);
+                        assertEquals(pgNo, p.getId().getPageNumber());
+                    }
+                    return null;
+                }
+            }));
+        }
+        int[] sizes = { 4, 24, 8, 32, 6, 12 };
+        for (int i = 0; System.currentTimeMillis() < end; i++) {
+            pool.resize(sizes[i % sizes.length]);
+            Thread.sleep(10);
+        }
+        for (Future<?> f : results)
+            f.get(10, TimeUnit.SECONDS);
+        readers.shutdown();
+        pool.resize(6);
+        assertTrue(residentPages(pool) <= 6);
+        readPages(t, 0, 32);
+        assertTrue(residentPages(pool) <= 6);
+    }
+
+    private static List<PageId> pageIds(HeapFile table, int from, int to) {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = from; i < to; i++)
+            pids.add(new HeapPageId(table.getId(), i));
+        return pids;
+    }
+
+    /** getPages reads only the missing pages and returns all of them in order. */
+    @Test public void getPagesReadsMissingPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(20);
+        InstrumentedHeapFile t = createTable(12);
+        readPages(t, 2, 3);
+        List<PageId> pids = pageIds(t, 0, 8);
+        List<Page> pages = pool.getPages(new TransactionId(), pids, Permissions.READ_ONLY);
+        assertEquals(8, t.readCount);
+        for (int i = 0; i < 8; i++)
+            assertEquals(pids.get(i), pages.get(i).getId());
+        pool.getPages(new TransactionId(), pids, Permissions.READ_ONLY);
+        readPages(t, 0, 8);
+        assertEquals(8, t.readCount);
+    }
+
+    /** A batch bigger than the pool still returns every page. */
+    @Test public void getPagesBiggerThanPool() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        InstrumentedHeapFile t = createTable(12);
+        List<PageId> pids = pageIds(t, 0, 10);
+        List<Page> pages = pool.getPages(new TransactionId(), pids, Permissions.READ_ONLY);
+        for (int i = 0; i < 10; i++)
+            assertEquals(pids.get(i), pages.get(i).getId());
+        assertEquals(4, pool.getPartitionPages(BufferPool.DEFAULT_PARTITION));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkInsertTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private int slots;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        File f = File.createTempFile("bulkinsert", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        slots = HeapPage.slotsPerPage(hf.getTupleDesc());
+    }
+
+    private int bulkInsert(TransactionId tid, int n) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+        return bulkInsert(tid, tuples);
+    }
+
+    private int bulkInsert(TransactionId tid, List<Tuple> tuples) throws Exception {
+        BulkInsert insert = new BulkInsert(tid, new TupleIterator(hf.getTupleDesc(), tuples), hf.getId());
+        insert.open();
+        assertTrue(insert.hasNext());
+        int count = ((IntField) insert.next().getField(0)).getValue();
+        assertFalse(insert.hasNext());
+        insert.close();
+        return count;
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Full pages go after the existing ones, with one log record per batch. */
+    @Test public void appendsFullPages() throws Exception {
+        int n = slots * (BulkInsert.BATCH_PAGES + 2) + 5;
+        TransactionId tid = new TransactionId();
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(n, bulkInsert(tid, n));
+        assertEquals(2, Database.getLogFile().getTotalRecords() - records);
+        assertEquals(1 + (n + slots - 1) / slots, hf.numPages());
+
+        // until the commit, other inserts stay off the appended pages
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 7 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(n + 1, count(new TransactionId()));
+        assertTrue(hf.freeSpace().getClass(hf.numPages() - 1) != FreeSpaceMap.FULL);
+    }
+
+    /** An abort empties the appended pages, and later inserts reuse them. */
+    @Test public void abortEmptiesPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        bulkInsert(tid, slots * 3);
+        assertEquals(4, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, count(new TransactionId()));
+        assertEquals(4, hf.numPages());
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 1 });
+        for (int i = 0; i <= slots; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(4, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserted tuples get the record ids of the pages they were appended to. */
+    @Test public void recordIdsPointAtAppendedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < slots * 2 + 1; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, -i }));
+        bulkInsert(tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Tuple last = tuples.get(tuples.size() - 1);
+        assertEquals(new HeapPageId(hf.getId(), 3), last.getRecordId().getPageId());
+        assertEquals(0, last.getRecordId().getTupleNumber());
+        tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, last);
+        Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size() - 2, count(new TransactionId()));
+    }
+
+    @Test(expected = DbException.class) public void schemaMismatch() throws Exception {
+        TupleDesc other = Utility.getTupleDesc(3);
+        new BulkInsert(new TransactionId(), new TupleIterator(other, new ArrayList<Tuple>()), hf.getId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkInsertTest.class);
+    }
+}
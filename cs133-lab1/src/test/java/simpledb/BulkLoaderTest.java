@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private ForkJoinPool pool;
+    private File in;
+    private File out;
+
+    @Before public void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+        in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        pool.shutdown();
+    }
+
+    // A loader with tiny chunks, so a small input is split across many tasks.
+    private BulkLoader loader(int chunkBytes) {
+        return new BulkLoader(TYPES, BufferPool.getPageSize(), ',', pool, chunkBytes);
+    }
+
+    private List<Tuple> read() throws Exception {
+        // the file is reloaded between reads, drop the cached pages
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile hf = new HeapFile(out, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /** Rows keep their input order across chunks, and every page but the last is full. */
+    @Test public void loadText() throws Exception {
+        int rows = 3000;
+        try (PrintWriter w = new PrintWriter(in)) {
+            for (int i = 0; i < rows; i++)
+                w.print(i + ", name" + i + " ," + (-i) + (i % 7 == 0 ? "\r\n\n" : "\n"));
+        }
+        int pages = loader(1000).load(in, out);
+        int perPage = HeapPage.slotsPerPage(new TupleDesc(TYPES));
+        assertEquals((rows + perPage - 1) / perPage, pages);
+        assertEquals((long) pages * BufferPool.getPageSize(), out.length());
+
+        List<Tuple> tuples = read();
+        assertEquals(rows, tuples.size());
+        for (int i = 0; i < rows; i++) {
+            assertEquals(new IntField(i), tuples.get(i).getField(0));
+            assertEquals("name" + i, tuples.get(i).getField(1).toString());
+            assertEquals(new IntField(-i), tuples.get(i).getField(2));
+        }
+    }
+
+    /** The last line needs no line break, and an empty input gives one empty page. */
+    @Test public void edges() throws Exception {
+        try (PrintWriter w = new PrintWriter(in)) {
+            w.print("1,a,2\n3,b,4");
+        }
+        assertEquals(1, loader(BulkLoader.CHUNK_BYTES).load(in, out));
+        assertEquals(2, read().size());
+        assertEquals(new IntField(4), read().get(1).getField(2));
+
+        new PrintWriter(in).close();
+        assertEquals(1, loader(BulkLoader.CHUNK_BYTES).load(in, out));
+        assertEquals(BufferPool.getPageSize(), out.length());
+        assertTrue(read().isEmpty());
+    }
+
+    /** Lines longer than a chunk, even after a line that grew the buffer, are read whole. */
+    @Test public void longLines() throws Exception {
+        String[] names = { "x", repeat('a', 36), repeat('b', 56), "y", repeat('c', 40) };
+        try (PrintWriter w = new PrintWriter(in)) {
+            for (int i = 0; i < names.length; i++)
+                w.print(i + "," + names[i] + "," + i + "\n");
+        }
+        loader(16).load(in, out);
+        List<Tuple> tuples = read();
+        assertEquals(names.length, tuples.size());
+        for (int i = 0; i < names.length; i++)
+            assertEquals(names[i], tuples.get(i).getField(1).toString());
+    }
+
+    private static String repeat(char c, int n) {
+        char[] cs = new char[n];
+        Arrays.fill(cs, c);
+        return new String(cs);
+    }
+
+    @Test public void malformedLine() throws Exception {
+        try (PrintWriter w = new PrintWriter(in)) {
+            for (int i = 0; i < 500; i++)
+                w.println(i + ",x," + i);
+            w.println("12,x,notanumber");
+        }
+        try {
+            loader(64).load(in, out);
+            fail("expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("notanumber"));
+        }
+    }
+
+    /** A stream of tuples gives the same file as the same rows as text. */
+    @Test public void loadTuples() throws Exception {
+        TupleDesc td = new TupleDesc(TYPES);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        try (PrintWriter w = new PrintWriter(in)) {
+            for (int i = 0; i < BulkLoader.CHUNK_TUPLES + 100; i++) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(i));
+                t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+                t.setField(2, new IntField(i * 3));
+                tuples.add(t);
+                w.println(i + ",s" + i + "," + (i * 3));
+            }
+        }
+        loader(4096).load(in, out);
+        byte[] fromText = Files.readAllBytes(out.toPath());
+        loader(4096).load(tuples.iterator(), out);
+        assertArrayEquals(fromText, Files.readAllBytes(out.toPath()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    /** Counts the pages read from each column. */
+    static class InstrumentedColumnarFile extends ColumnarFile {
+        final int[] reads;
+
+        InstrumentedColumnarFile(File f, TupleDesc td) {
+            super(f, td);
+            reads = new int[td.numFields()];
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads[((ColumnPageId) pid).getColumn()]++;
+            return super.readPage(pid);
+        }
+    }
+
+    private TupleDesc td;
+    private InstrumentedColumnarFile cf;
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "id", "name", "score" });
+        File f = File.createTempFile("columnar", ".dat");
+        f.deleteOnExit();
+        cf = new InstrumentedColumnarFile(f, td);
+        for (int i = 0; i < td.numFields(); i++)
+            cf.columnFile(i).deleteOnExit();
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(ROWS - i));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Arrays.fill(cf.reads, 0);
+    }
+
+    /** A full scan returns every row, with the values of all of its columns. */
+    @Test public void scanAllColumns() throws Exception {
+        assertTrue(cf.numPages(1) > 1);
+        SeqScan scan = new SeqScan(new TransactionId(), cf.getId(), "t");
+        scan.open();
+        int row = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(row), t.getField(0));
+            assertEquals("name" + row, t.getField(1).toString());
+            assertEquals(new IntField(ROWS - row), t.getField(2));
+            row++;
+        }
+        scan.close();
+        assertEquals(ROWS, row);
+    }
+
+    /** A scan of some of the columns reads only the pages of those columns. */
+    @Test public void scanReadsOnlyReferencedColumns() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), cf.getId(), "t", new int[] { 2 });
+        assertEquals(1, scan.getTupleDesc().numFields());
+        assertEquals("t.score", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        long sum = 0;
+        int rows = 0;
+        while (scan.hasNext()) {
+            sum += ((IntField) scan.next().getField(0)).getValue();
+            rows++;
+        }
+        scan.close();
+        assertEquals(ROWS, rows);
+        assertEquals((long) ROWS * (ROWS + 1) / 2, sum);
+        assertEquals(0, cf.reads[0]);
+        assertEquals(0, cf.reads[1]);
+        assertEquals(cf.numPages(2), cf.reads[2]);
+    }
+
+    /** A filtered scan also reads the pages of the filtered column, and no others. */
+    @Test public void filteredScanReadsOnlyReferencedColumns() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), cf.getId(), "t", new int[] { 2 },
+                Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100))));
+        assertEquals(1, scan.getTupleDesc().numFields());
+        scan.open();
+        long sum = 0;
+        int rows = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(1, t.getTupleDesc().numFields());
+            sum += ((IntField) t.getField(0)).getValue();
+            rows++;
+        }
+        scan.close();
+        assertEquals(100, rows);
+        assertEquals(100L * ROWS - 99 * 100 / 2, sum);
+        assertEquals(cf.numPages(0), cf.reads[0]);
+        assertEquals(0, cf.reads[1]);
+        assertEquals(cf.numPages(2), cf.reads[2]);
+    }
+
+    /** Each page keeps the smallest and largest of its values. */
+    @Test public void pageStatistics() throws Exception {
+        ColumnPage page = (ColumnPage) cf.readPage(new ColumnPageId(cf.getId(), 2, 1));
+        assertEquals(0, page.getNullCount());
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < page.getNumValues(); i++) {
+            int v = ((IntField) page.getValue(i)).getValue();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        assertEquals(new IntField(min), page.getMin());
+        assertEquals(new IntField(max), page.getMax());
+        assertEquals(ROWS - page.getFirstRow(), max);
+    }
+
+    /** A scan of some of the columns of a heap file drops the other fields. */
+    @Test public void projectHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 50, null, tuples);
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), "h", new int[] { 2, 0 });
+        scan.open();
+        int row = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(new IntField(tuples.get(row).get(2)), t.getField(0));
+            assertEquals(new IntField(tuples.get(row).get(0)), t.getField(1));
+            row++;
+        }
+        scan.close();
+        assertEquals(50, row);
+    }
+
+    @Test public void catalogStorageOption() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        File schema = new File(dir, "catalog.txt");
+        PrintWriter out = new PrintWriter(schema);
+        out.println("wide (id int pk, name string) storage=columnar");
+        out.println("narrow (id int) storage=row");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertTrue(c.getDatabaseFile(c.getTableId("wide")) instanceof ColumnarFile);
+        assertTrue(c.getDatabaseFile(c.getTableId("narrow")) instanceof HeapFile);
+        schema.delete();
+        dir.delete();
+    }
+
+    /** Column pages can be read back from the log, as recovery does. */
+    @Test public void readBackFromLog() throws Exception {
+        Page page = cf.readPage(new ColumnPageId(cf.getId(), 1, 0));
+        File f = File.createTempFile("columnar", ".log");
+        f.deleteOnExit();
+        LogFile log = Database.getLogFile();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            log.writePageData(raf, page);
+            raf.seek(0);
+            Page copy = log.readPageData(raf);
+            assertEquals(page.getId(), copy.getId());
+            assertEquals(Type.STRING_TYPE, ((ColumnPage) copy).type);
+            assertArrayEquals(page.getPageData(), copy.getPageData());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
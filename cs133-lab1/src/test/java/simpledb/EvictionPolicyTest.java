@@ -0,0 +1,210 @@
+package simpledb;
+
+import simpledb.systemtest.InstrumentedHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 8;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Loads a small working set, references it again, then pushes a long
+     * scan through the policy the way the BufferPool would.  None of the
+     * working set pages may be chosen as a victim.
+     */
+    private void checkScanResistance(EvictionPolicy policy) {
+        Set<PageId> resident = new HashSet<PageId>();
+        for (int i = 0; i < 3; i++) {
+            policy.pageAdded(pid(i));
+            resident.add(pid(i));
+        }
+        for (int i = 0; i < 3; i++)
+            policy.pageAccessed(pid(i));
+
+        for (int i = 100; i < 200; i++) {
+            if (resident.size() == CAPACITY) {
+                PageId victim = policy.chooseVictim(p -> true);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+                assertTrue("hot page " + victim + " evicted by a scan",
+                        victim.getPageNumber() >= 100);
+            }
+            policy.pageAdded(pid(i));
+            resident.add(pid(i));
+            // the working set keeps being used while the scan runs
+            policy.pageAccessed(pid(i % 3));
+        }
+    }
+
+    private void checkSkipsUnevictable(EvictionPolicy policy) {
+        for (int i = 0; i < CAPACITY; i++)
+            policy.pageAdded(pid(i));
+        PageId victim = policy.chooseVictim(p -> p.getPageNumber() == 5);
+        assertEquals(pid(5), victim);
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    @Test public void clockProScanResistance() {
+        checkScanResistance(new ClockProPolicy(CAPACITY));
+    }
+
+    @Test public void lru2ScanResistance() {
+        checkScanResistance(new LruKPolicy(CAPACITY));
+    }
+
+    @Test public void clockProSkipsUnevictable() {
+        checkSkipsUnevictable(new ClockProPolicy(CAPACITY));
+    }
+
+    @Test public void lru2SkipsUnevictable() {
+        checkSkipsUnevictable(new LruKPolicy(CAPACITY));
+    }
+
+    @Test public void lru2EvictsOldestKthReference() {
+        LruKPolicy policy = new LruKPolicy(CAPACITY);
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        policy.pageAccessed(pid(0));
+        policy.pageAccessed(pid(1));
+        policy.pageAdded(pid(2));
+        // page 2 has been referenced once, so it goes first
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+        // page 0's second-to-last reference is older than page 1's
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+        assertEquals(pid(1), policy.chooseVictim(p -> true));
+        assertNull(policy.chooseVictim(p -> true));
+    }
+
+    @Test public void removedPagesAreForgotten() {
+        EvictionPolicy[] policies = { new ClockProPolicy(CAPACITY), new LruKPolicy(CAPACITY) };
+        for (EvictionPolicy policy : policies) {
+            policy.pageAdded(pid(0));
+            policy.pageAdded(pid(1));
+            policy.pageRemoved(pid(0));
+            assertEquals(pid(1), policy.chooseVictim(p -> true));
+            assertNull(policy.chooseVictim(p -> true));
+        }
+    }
+
+    /** A victim the pool could not remove is kept without counting as a reference. */
+    @Test public void lru2KeptVictimIsNotReferenced() {
+        LruKPolicy policy = new LruKPolicy(CAPACITY);
+        for (int i = 0; i < 4; i++)
+            policy.pageAdded(pid(i));
+        for (int i = 1; i < 4; i++)
+            policy.pageAccessed(pid(i));
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+        policy.victimKept(pid(0));
+        // still referenced only once, so it goes first again
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+    }
+
+    @Test public void clockProKeptVictimIsResident() {
+        ClockProPolicy policy = new ClockProPolicy(CAPACITY);
+        for (int i = 0; i < 4; i++)
+            policy.pageAdded(pid(i));
+        for (int i = 1; i < 4; i++)
+            policy.pageAccessed(pid(i));
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+        policy.victimKept(pid(0));
+        Set<PageId> victims = new HashSet<PageId>();
+        for (int i = 0; i < 4; i++)
+            assertTrue(victims.add(policy.chooseVictim(p -> true)));
+        assertTrue(victims.contains(pid(0)));
+        assertNull(policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * A scan of a table several times larger than the pool must leave the
+     * pages of a small, frequently used table cached.
+     */
+    @Test public void bufferPoolKeepsWorkingSetDuringScan() throws Exception {
+        final int HOT_PAGES = 4;
+        final int BIG_PAGES = 60;
+        Database.resetBufferPool(20);
+        // keep the scan in the shared pool so the policy has to deal with it
+        Database.getBufferPool().setBulkReadFraction(100);
+        TupleDesc td = Utility.getTupleDesc(1);
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * HOT_PAGES, 1000, null, null);
+        InstrumentedHeapFile hot = new InstrumentedHeapFile(hotFile, td);
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File bigFile = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * BIG_PAGES, 1000, null, tuples);
+        HeapFile big = new HeapFile(bigFile, td);
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++)
+            for (int i = 0; i < HOT_PAGES; i++)
+                Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(HOT_PAGES, hot.readCount);
+
+        SystemTestUtil.matchTuples(big, tuples);
+
+        for (int i = 0; i < HOT_PAGES; i++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        assertEquals(HOT_PAGES, hot.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Pinned pages stay resident; a pool full of pinned pages cannot load more. */
+    @Test public void pinnedPagesAreNotEvicted() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 12, 1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        PageId first = new HeapPageId(table.getId(), 0);
+
+        Page p = pool.pinPage(tid, first, Permissions.READ_ONLY);
+        pool.pinPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < 12; i++)
+            pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        assertSame(p, pool.getPage(tid, first, Permissions.READ_ONLY));
+        assertEquals(12, table.readCount);
+
+        // both pins have to go before the page can be evicted
+        pool.unpinPage(first);
+        for (int i = 1; i < 12; i++)
+            pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        pool.getPage(tid, first, Permissions.READ_ONLY);
+        assertEquals(12 + 11, table.readCount);
+        pool.unpinPage(first);
+        try {
+            pool.unpinPage(first);
+            fail("page was not pinned");
+        } catch (IllegalStateException e) {
+        }
+
+        for (int i = 0; i < 4; i++)
+            pool.pinPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        try {
+            pool.getPage(tid, new HeapPageId(table.getId(), 4), Permissions.READ_ONLY);
+            fail("every page is pinned");
+        } catch (DbException e) {
+        }
+        // leave the global pool usable for the tests that run after this one
+        for (int i = 0; i < 4; i++)
+            pool.unpinPage(new HeapPageId(table.getId(), i));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
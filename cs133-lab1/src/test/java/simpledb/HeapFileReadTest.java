@@ -186,7 +186,108 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         }
         assertEquals(numTuples, count);
         it.close();
-        
+
+    }
+
+    /**
+     * The cached file length follows writes past the end of the file, and
+     * the gap in between reads as empty pages.
+     */
+    @Test public void writeExtendsFile() throws Exception {
+        assertEquals(1, hf.numPages());
+        HeapPage first = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 2), first.getPageData()));
+        assertEquals(3, hf.numPages());
+        assertEquals(3 * BufferPool.getPageSize(), hf.getFile().length());
+
+        HeapPage gap = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(gap.getNumEmptySlots(), first.getNumEmptySlots() + 20);
+        assertFalse(gap.iterator().hasNext());
+        HeapPage last = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2));
+        assertArrayEquals(first.getPageData(), last.getPageData());
+    }
+
+    /**
+     * Pages are spread over segment files round-robin, and a reopened file
+     * finds all of its segments again.
+     */
+    @Test public void segmentFiles() throws Exception {
+        File dirA = java.nio.file.Files.createTempDirectory("segA").toFile();
+        File dirB = java.nio.file.Files.createTempDirectory("segB").toFile();
+        File first = File.createTempFile("segmented", ".dat");
+        first.delete();
+        long segmentBytes = 2L * BufferPool.getPageSize();
+        HeapFile seg = new HeapFile(first, td, false, segmentBytes, dirA, dirB);
+        Database.getCatalog().addTable(seg, SystemTestUtil.getUUID());
+        byte[] data = hf.readPage(new HeapPageId(hf.getId(), 0)).getPageData();
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < 5; i++)
+            pages.add(new HeapPage(new HeapPageId(seg.getId(), i), data));
+        seg.writePages(pages);
+
+        File seg1 = new File(dirA, first.getName() + ".1");
+        File seg2 = new File(dirB, first.getName() + ".2");
+        assertEquals(segmentBytes, first.length());
+        assertEquals(segmentBytes, seg1.length());
+        assertEquals(segmentBytes / 2, seg2.length());
+        assertEquals(5, seg.numPages());
+
+        HeapFile reopened = new HeapFile(first, td, false, segmentBytes, dirA, dirB);
+        assertEquals(5, reopened.numPages());
+        for (int i = 0; i < 5; i++)
+            assertArrayEquals(data, reopened.readPage(new HeapPageId(seg.getId(), i)).getPageData());
+        // one batch across all three segments, and a page past the end
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < 7; i++)
+            pids.add(new HeapPageId(seg.getId(), i));
+        List<Page> batch = reopened.readPages(pids);
+        for (int i = 0; i < 5; i++)
+            assertArrayEquals(data, batch.get(i).getPageData());
+        assertFalse(((HeapPage) batch.get(6)).iterator().hasNext());
+
+        for (File f : new File[] { first, seg1, seg2, dirA, dirB })
+            f.delete();
+    }
+
+    /**
+     * A mapped heap file reads the same pages, keeps only written pages in
+     * the pool, and still restores the before image on abort.
+     */
+    @Test public void memoryMapped() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        byte[] original = hf.readPage(pid).getPageData();
+        assertArrayEquals(original, mapped.readPage(pid).getPageData());
+
+        DbFileIterator it = mapped.iterator(tid);
+        int count = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(20, count);
+        assertEquals(0, Database.getBufferPool().getPartitionPages(BufferPool.DEFAULT_PARTITION));
+
+        TransactionId writer = new TransactionId();
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, writer);
+        assertEquals(1, Database.getBufferPool().getPartitionPages(BufferPool.DEFAULT_PARTITION));
+        Database.getBufferPool().transactionComplete(writer, false);
+        assertArrayEquals(original, Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY).getPageData());
+
+        // the mapping shows the uncommitted page once it is flushed
+        writer = new TransactionId();
+        p = (HeapPage) Database.getBufferPool().getPage(writer, pid, Permissions.READ_WRITE);
+        p.deleteTuple(p.iterator().next());
+        p.markDirty(true, writer);
+        Database.getBufferPool().flushAllPages();
+        assertArrayEquals(p.getPageData(), mapped.readPage(pid).getPageData());
+        Database.getBufferPool().transactionComplete(writer, true);
     }
     
     /**
@@ -0,0 +1,108 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileWriteTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile hf;
+    private int slots;
+
+    @Before public void setUp() throws Exception {
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, null);
+        file.deleteOnExit();
+        FreeSpaceMap.fileFor(file).deleteOnExit();
+        hf = Utility.openHeapFile(2, file);
+        slots = HeapPage.slotsPerPage(hf.getTupleDesc());
+    }
+
+    private void insert(TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i }));
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Inserts fill the free slots of the existing page before a page is added. */
+    @Test public void insertFillsFreeSpace() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, slots - 20);
+        assertEquals(1, hf.numPages());
+        assertEquals(FreeSpaceMap.FULL, hf.freeSpace().getClass(0));
+
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 7 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(2, hf.numPages());
+        assertEquals(new HeapPageId(hf.getId(), 1), t.getRecordId().getPageId());
+        assertEquals(slots + 1, count(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A delete makes room that the next insert uses. */
+    @Test public void deleteMakesRoom() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, slots - 20);
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        RecordId rid = victim.getRecordId();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(slots - 1, count(tid));
+
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 7 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(rid, t.getRecordId());
+        assertEquals(1, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The map is saved at a checkpoint, and rebuilt from the page headers when it is lost. */
+    @Test public void mapSurvivesReopen() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, slots + 10);
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        File saved = FreeSpaceMap.fileFor(file);
+        // 写页不会保存映射
+        assertFalse(saved.exists());
+        hf.checkpoint();
+        assertTrue(saved.exists());
+
+        FreeSpaceMap loaded = new HeapFile(file, hf.getTupleDesc()).freeSpace();
+        assertEquals(2, loaded.numPages());
+        assertEquals(FreeSpaceMap.FULL, loaded.getClass(0));
+        assertEquals(1, loaded.findPage());
+
+        saved.delete();
+        FreeSpaceMap rebuilt = new HeapFile(file, hf.getTupleDesc()).freeSpace();
+        assertEquals(2, rebuilt.numPages());
+        assertEquals(FreeSpaceMap.FULL, rebuilt.getClass(0));
+        assertEquals(rebuilt.classOf(slots - 30), rebuilt.getClass(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
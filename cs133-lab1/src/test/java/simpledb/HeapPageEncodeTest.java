@@ -0,0 +1,105 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageEncodeTest extends SimpleDbTestBase {
+    private static final Type[] MIXED = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private HeapPageId addTable(TupleDesc td) {
+        int tableId = new Random().nextInt(Integer.MAX_VALUE);
+        Database.getCatalog().addTable(new SkeletonFile(tableId, td), SystemTestUtil.getUUID());
+        return new HeapPageId(tableId, 0);
+    }
+
+    private Tuple tuple(TupleDesc td, int i) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                t.setField(j, new IntField(i * 31 + j));
+            else
+                t.setField(j, new StringField("row" + i, Type.STRING_LEN));
+        }
+        return t;
+    }
+
+    // Fill a page, delete every third tuple and write it out into a buffer at an offset.
+    private void roundTrip(TupleDesc td) throws Exception {
+        HeapPageId pid = addTable(td);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> kept = new ArrayList<Tuple>();
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            Tuple t = tuple(td, i);
+            page.insertTuple(t);
+            if (i % 3 == 0)
+                page.deleteTuple(t);
+            else
+                kept.add(t);
+        }
+
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer dst = ByteBuffer.allocate(pageSize + 16);
+        Arrays.fill(dst.array(), (byte) 0x5a);
+        dst.position(16);
+        page.writeTo(dst);
+        assertEquals(16 + pageSize, dst.position());
+        byte[] data = Arrays.copyOfRange(dst.array(), 16, 16 + pageSize);
+        assertArrayEquals(page.getPageData(), data);
+
+        HeapPage copy = new HeapPage(pid, data);
+        Iterator<Tuple> it = copy.iterator();
+        for (Tuple t : kept)
+            assertEquals(t.toString(), it.next().toString());
+        assertEquals(false, it.hasNext());
+        // a page decoded from the bytes encodes to the same bytes
+        assertArrayEquals(data, copy.getPageData());
+    }
+
+    @Test public void intOnlyRoundTrip() throws Exception {
+        roundTrip(Utility.getTupleDesc(3));
+    }
+
+    @Test public void mixedRoundTrip() throws Exception {
+        roundTrip(new TupleDesc(MIXED));
+    }
+
+    @Test public void fieldOffsets() {
+        TupleDesc td = new TupleDesc(MIXED);
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(4, td.getFieldOffset(1));
+        assertEquals(4 + Type.STRING_TYPE.getSizeInBytes(), td.getFieldOffset(2));
+        assertEquals(td.getFieldOffset(2) + 4, td.getSizeInBytes());
+    }
+
+    /** A commit re-encodes the changed slots right into the page's frame. */
+    @Test public void beforeImageInFrame() throws Exception {
+        TupleDesc td = new TupleDesc(MIXED);
+        HeapPageId pid = addTable(td);
+        ByteBuffer frame = ByteBuffer.allocateDirect(BufferPool.getPageSize());
+        HeapPage page = HeapPage.fromFrame(pid, frame);
+        Tuple t = tuple(td, 7);
+        page.insertTuple(t);
+        page.setBeforeImage();
+
+        byte[] data = new byte[BufferPool.getPageSize()];
+        frame.get(0, data);
+        assertArrayEquals(page.getPageData(), data);
+        assertEquals(t.toString(), page.getBeforeImage().getTuple(t.getRecordId()).toString());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageEncodeTest.class);
+    }
+}
@@ -13,6 +13,10 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +124,62 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple(): a slot is decoded when it is read.
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple t = page.getTuple(new RecordId(pid, 7));
+        assertEquals(EXAMPLE_VALUES[7][0], ((IntField) t.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[7][1], ((IntField) t.getField(1)).getValue());
+        assertSame(t, page.getTuple(new RecordId(pid, 7)));
+        assertNull(page.getTuple(new RecordId(pid, 30)));
+        try {
+            page.getTuple(new RecordId(new HeapPageId(-1, 3), 7));
+            fail("expected a NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The bytes a page is read from are its before image, and are written
+     * back as they are for the slots that did not change.
+     */
+    @Test public void beforeImageIsOriginalBytes() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertSame(EXAMPLE_DATA, page.oldData);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        page.deleteTuple(page.getTuple(new RecordId(pid, 3)));
+        Tuple t = Utility.getHeapTuple(new int[] { 5, 6 });
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 3), t.getRecordId());
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(new IntField(6), copy.getTuple(new RecordId(pid, 3)).getField(1));
+        assertEquals(new IntField(EXAMPLE_VALUES[4][0]), copy.getTuple(new RecordId(pid, 4)).getField(0));
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A commit keeps the bytes the page was read from; the before image is
+     * only copied when the page is changed again.
+     */
+    @Test public void beforeImageCopiedOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple t = Utility.getHeapTuple(new int[] { 5, 6 });
+        page.insertTuple(t);
+        page.setBeforeImage();
+        assertSame(EXAMPLE_DATA, page.oldData);
+        assertEquals(new IntField(6), page.getBeforeImage().getTuple(t.getRecordId()).getField(1));
+
+        page.deleteTuple(t);
+        assertFalse(EXAMPLE_DATA == page.oldData);
+        assertArrayEquals(page.oldData, page.getBeforeImage().getPageData());
+        assertEquals(new IntField(5), page.getBeforeImage().getTuple(new RecordId(pid, 20)).getField(0));
+        assertNull(page.getTuple(new RecordId(pid, 20)));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,79 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlotBitmapTest extends SimpleDbTestBase {
+    // not a multiple of 64 or of 8, so the last word and the last byte are partial
+    private static final int SLOTS = 203;
+
+    private byte[] randomHeader(Random r, BitSet expected) {
+        byte[] header = new byte[SlotBitmap.bytes(SLOTS)];
+        for (int i = 0; i < SLOTS; i++) {
+            if (r.nextInt(3) == 0) {
+                header[i / 8] |= (byte) (1 << (i % 8));
+                expected.set(i);
+            }
+        }
+        return header;
+    }
+
+    /** The words read from a header give the same slots as the bytes, in either byte order. */
+    @Test public void readWriteHeader() {
+        Random r = new Random(7);
+        BitSet expected = new BitSet();
+        byte[] header = randomHeader(r, expected);
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer page = ByteBuffer.allocate(header.length + 3).order(order);
+            page.position(3);
+            page.put(header);
+
+            SlotBitmap bits = new SlotBitmap(SLOTS);
+            bits.read(page, 3);
+            for (int i = 0; i < SLOTS; i++)
+                assertEquals(expected.get(i), bits.get(i));
+            assertEquals(expected.cardinality(), bits.cardinality());
+            assertEquals(expected.cardinality(), SlotBitmap.count(header));
+
+            ByteBuffer out = ByteBuffer.allocate(header.length).order(order);
+            bits.write(out, 0);
+            assertArrayEquals(header, out.array());
+        }
+    }
+
+    @Test public void nextUsedAndFree() {
+        BitSet expected = new BitSet();
+        randomHeader(new Random(11), expected);
+        SlotBitmap bits = new SlotBitmap(SLOTS);
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1))
+            bits.set(i, true);
+        for (int i = 0; i <= SLOTS; i++) {
+            int used = expected.nextSetBit(i);
+            int free = expected.nextClearBit(i);
+            assertEquals(used < 0 || used >= SLOTS ? -1 : used, bits.nextUsed(i));
+            assertEquals(free >= SLOTS ? -1 : free, bits.nextFree(i));
+        }
+
+        SlotBitmap full = new SlotBitmap(SLOTS);
+        for (int i = 0; i < SLOTS; i++)
+            full.set(i, true);
+        assertEquals(-1, full.nextFree(0));
+        full.set(130, false);
+        assertEquals(130, full.nextFree(0));
+        assertEquals(-1, new SlotBitmap(SLOTS).nextUsed(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlotBitmapTest.class);
+    }
+}
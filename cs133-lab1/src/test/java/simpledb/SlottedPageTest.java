@@ -0,0 +1,217 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileFor(f).deleteOnExit();
+        hf = new HeapFile(f, td, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedPage emptyPage() throws Exception {
+        return new SlottedPage(pid, HeapPage.createEmptyPageData(), 0);
+    }
+
+    /** A page keeps no copy of its bytes until it is first changed. */
+    @Test public void beforeImageTakenOnWrite() throws Exception {
+        SlottedPage page = emptyPage();
+        page.insertTuple(tuple(1, "a"));
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+
+        page.insertTuple(tuple(2, "b"));
+        assertNotNull(page.oldData);
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+        assertEquals(2, page.getNumTuples());
+    }
+
+    /** A page survives being written out and read back, record ids included. */
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = emptyPage();
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, "name" + i));
+        page.deleteTuple(page.iterator().next());
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData(), 0);
+        assertEquals(9, copy.getNumTuples());
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        Iterator<Tuple> a = page.iterator(), b = copy.iterator();
+        while (a.hasNext()) {
+            Tuple x = a.next(), y = b.next();
+            assertEquals(x.getRecordId(), y.getRecordId());
+            assertEquals(x.getField(0), y.getField(0));
+            assertEquals(x.getField(1), y.getField(1));
+        }
+        assertFalse(b.hasNext());
+        assertEquals(page.getFreeSpace(), SlottedPage.freeSpace(
+                Arrays.copyOf(page.getPageData(), SlottedPage.HEADER_SIZE)));
+    }
+
+    /** Iterating a page while another thread changes it sees whole changes only. */
+    @Test public void iterateWhileModified() throws Exception {
+        final SlottedPage page = emptyPage();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failed = new AtomicReference<Throwable>();
+        Thread writer = new Thread(() -> {
+            try {
+                // 插满20个再从后往前删光 目录会变长又变短
+                boolean deleting = false;
+                for (int i = 0; !stop.get(); i++) {
+                    // 和HeapFile.modify一样 在页的监视器里修改
+                    synchronized (page) {
+                        if (deleting) {
+                            Tuple last = null;
+                            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                                last = it.next();
+                            page.deleteTuple(last);
+                        } else {
+                            page.insertTuple(tuple(i, "n" + i));
+                        }
+                        int n = page.getNumTuples();
+                        deleting = n > 0 && (deleting || n >= 20);
+                    }
+                }
+            } catch (Throwable e) {
+                failed.set(e);
+            }
+        });
+        writer.start();
+        try {
+            long end = System.currentTimeMillis() + 200;
+            while (System.currentTimeMillis() < end && failed.get() == null) {
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    assertNotNull(it.next());
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        if (failed.get() != null)
+            throw new AssertionError(failed.get());
+    }
+
+    /** Slotted pages can be read back from the log, as recovery does. */
+    @Test public void readBackFromLog() throws Exception {
+        SlottedPage page = emptyPage();
+        for (int i = 0; i < 5; i++)
+            page.insertTuple(tuple(i, "name" + i));
+        File f = File.createTempFile("slotted", ".log");
+        f.deleteOnExit();
+        LogFile log = Database.getLogFile();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            log.writePageData(raf, page);
+            raf.seek(0);
+            Page copy = log.readPageData(raf);
+            assertTrue(copy instanceof SlottedPage);
+            assertEquals(5, ((SlottedPage) copy).getNumTuples());
+            assertArrayEquals(page.getPageData(), copy.getPageData());
+        }
+    }
+
+    /** Short strings fit many more tuples on a page than fixed-size slots. */
+    @Test public void shortStringsFitMoreTuples() throws Exception {
+        SlottedPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "bob")))
+            page.insertTuple(tuple(n++, "bob"));
+        assertTrue(n > 5 * HeapPage.slotsPerPage(td));
+        try {
+            page.insertTuple(tuple(n, "bob"));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /** A deleted slot is used again by the next insert. */
+    @Test public void deleteReusesSlot() throws Exception {
+        SlottedPage page = emptyPage();
+        Tuple first = tuple(1, "a");
+        page.insertTuple(first);
+        page.insertTuple(tuple(2, "bb"));
+        RecordId rid = first.getRecordId();
+        page.deleteTuple(first);
+        assertNull(first.getRecordId());
+        Tuple again = tuple(3, "ccc");
+        page.insertTuple(again);
+        assertEquals(rid, again.getRecordId());
+    }
+
+    /** A slotted table takes inserts through the buffer pool and scans them back. */
+    @Test public void slottedHeapFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        int rows = 2000;
+        for (int i = 0; i < rows; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(i, "n" + i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        int heapPages = (rows + HeapPage.slotsPerPage(td) - 1) / HeapPage.slotsPerPage(td);
+        assertTrue(hf.numPages() * 5 < heapPages);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("n" + ((IntField) t.getField(0)).getValue(), t.getField(1).toString());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+    }
+
+    @Test public void catalogFormatOption() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        File schema = new File(dir, "catalog.txt");
+        PrintWriter out = new PrintWriter(schema);
+        out.println("names (id int pk, name string) format=slotted");
+        out.println("facts (id int)");
+        out.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertEquals(PageFormat.SLOTTED, ((HeapFile) c.getDatabaseFile(c.getTableId("names"))).getPageFormat());
+        assertEquals(PageFormat.HEAP, ((HeapFile) c.getDatabaseFile(c.getTableId("facts"))).getPageFormat());
+        schema.delete();
+        dir.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
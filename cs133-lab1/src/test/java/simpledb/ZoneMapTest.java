@@ -0,0 +1,190 @@
+package simpledb;
+
+import simpledb.systemtest.InstrumentedHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private File file;
+    private InstrumentedHeapFile hf;
+
+    private InstrumentedHeapFile open() {
+        InstrumentedHeapFile f = new InstrumentedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    // zoneMap()是包内方法 从别的包的子类上调用不到
+    private static ZoneMap zoneMap(HeapFile f) throws DbException {
+        return f.zoneMap();
+    }
+
+    @Before public void setUp() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = File.createTempFile("zonemap", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.fileFor(file).deleteOnExit();
+        ZoneMap.fileFor(file).deleteOnExit();
+        hf = open();
+        // 插入不会加载zone map 先加载好 检查点时才会把它存下来
+        zoneMap(hf);
+
+        // 第0列递增 每页覆盖一段不相交的范围 第1列在每页都是0..9
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, i % 10 }));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        hf.checkpoint();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.read.clear();
+    }
+
+    private int count(SeqScan scan) throws Exception {
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private List<Predicate> where(int field, Predicate.Op op, int value) {
+        return Collections.singletonList(new Predicate(field, op, new IntField(value)));
+    }
+
+    /** A selective predicate on a sorted column reads only the pages that may match. */
+    @Test public void skipsPages() throws Exception {
+        assertTrue(hf.numPages() > 5);
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), "t", new int[] { 1 },
+                where(0, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10));
+        assertEquals(10, count(scan));
+        assertEquals(Collections.singleton(hf.numPages() - 1), hf.read);
+
+        scan = new SeqScan(new TransactionId(), hf.getId(), "t", null,
+                where(0, Predicate.Op.EQUALS, -1));
+        assertEquals(0, count(scan));
+    }
+
+    /** A predicate that every page may match reads them all, and still filters. */
+    @Test public void unselectivePredicate() throws Exception {
+        SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), "t", null,
+                where(1, Predicate.Op.EQUALS, 3));
+        assertEquals(ROWS / 10, count(scan));
+        assertEquals(hf.numPages(), hf.read.size());
+    }
+
+    /** An insert widens the zone of its page right away. */
+    @Test public void insertWidensZone() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, 0 }));
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t", null, where(0, Predicate.Op.LESS_THAN, 0));
+        assertEquals(1, count(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An insert into a table whose map is not loaded yet does not read the
+     * table, and a scan that loads the map afterwards still sees the tuple.
+     */
+    @Test public void insertDoesNotLoadMap() throws Exception {
+        assertTrue(ZoneMap.fileFor(file).delete());
+        InstrumentedHeapFile reopened = open();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), Utility.getHeapTuple(new int[] { -5, 0 }));
+        assertTrue(reopened.read.size() <= 1);
+
+        SeqScan scan = new SeqScan(tid, reopened.getId(), "t", null, where(0, Predicate.Op.LESS_THAN, 0));
+        assertEquals(1, count(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan that skips most pages of a table bigger than the pool reads
+     * through a ring; every tuple it returns must come from the page it
+     * says, even though the pages it reads are far apart.
+     */
+    @Test public void sparseScanThroughRing() throws Exception {
+        final int PAGES = 10 * ScanRing.DEFAULT_PAGES, STRIDE = ScanRing.DEFAULT_PAGES;
+        TupleDesc td = Utility.getTupleDesc(2);
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSizeInBytes() * 8 + 1);
+        // 第0列只在页号是STRIDE倍数的页上为0 第1列是元组的序号
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < PAGES * perPage; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList((i / perPage) % STRIDE == 0 ? 0 : 1, i)));
+        File sparse = File.createTempFile("sparse", ".dat");
+        sparse.deleteOnExit();
+        ZoneMap.fileFor(sparse).deleteOnExit();
+        HeapFileEncoder.convert(tuples, sparse, BufferPool.getPageSize(), 2);
+        Database.resetBufferPool(4);
+        HeapFile table = new HeapFile(sparse, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertEquals(PAGES, table.numPages());
+
+        for (int round = 0; round < 5; round++) {
+            SeqScan scan = new SeqScan(new TransactionId(), table.getId(), "t", null,
+                    where(0, Predicate.Op.EQUALS, 0));
+            Set<Integer> seen = new HashSet<Integer>();
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                int row = ((IntField) t.getField(1)).getValue();
+                assertEquals(row / perPage, t.getRecordId().getPageId().getPageNumber());
+                assertEquals(0, ((IntField) t.getField(0)).getValue());
+                assertTrue("row " + row + " returned twice", seen.add(row));
+            }
+            scan.close();
+            assertEquals(PAGES / STRIDE * perPage, seen.size());
+        }
+    }
+
+    /** Writing pages does not save the map; a checkpoint does, once per change. */
+    @Test public void savedAtCheckpoint() throws Exception {
+        File saved = ZoneMap.fileFor(file);
+        assertTrue(saved.delete());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertFalse(saved.exists());
+
+        hf.checkpoint();
+        assertTrue(saved.exists());
+        assertTrue(saved.delete());
+        hf.checkpoint();
+        assertFalse(saved.exists());
+    }
+
+    /** The map is saved at a checkpoint and rebuilt when the file changed after the save. */
+    @Test public void mapSurvivesReopen() throws Exception {
+        assertTrue(ZoneMap.fileFor(file).exists());
+        InstrumentedHeapFile reopened = open();
+        assertEquals(hf.numPages(), zoneMap(reopened).numPages());
+        assertTrue(reopened.read.isEmpty());
+
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        reopened = open();
+        assertEquals(hf.numPages(), zoneMap(reopened).numPages());
+        assertEquals(hf.numPages(), reopened.read.size());
+        assertFalse(zoneMap(reopened).mayMatch(0, where(0, Predicate.Op.GREATER_THAN, ROWS)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
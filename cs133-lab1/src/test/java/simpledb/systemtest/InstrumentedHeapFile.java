@@ -0,0 +1,70 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import simpledb.HeapFile;
+import simpledb.Page;
+import simpledb.PageId;
+import simpledb.TupleDesc;
+
+/**
+ * A HeapFile that counts the pages read from it, by any of the read
+ * methods, and remembers their page numbers.  Read-ahead threads may read
+ * pages concurrently with the test.  A read method that falls back on
+ * another one counts its pages once.
+ */
+public class InstrumentedHeapFile extends HeapFile {
+    /** Number of pages read so far; tests may reset it. */
+    public volatile int readCount = 0;
+    /** Page numbers of the pages read so far. */
+    public final Set<Integer> read = Collections.synchronizedSet(new HashSet<Integer>());
+
+    //本线程正在进行的读调用层数 只在最外层计数
+    private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+    public InstrumentedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    private <T> T reading(List<PageId> pids, Supplier<T> reader) {
+        int[] d = depth.get();
+        if (d[0]++ == 0) {
+            synchronized (depth) {
+                readCount += pids.size();
+            }
+            for (PageId pid : pids)
+                read.add(pid.getPageNumber());
+        }
+        try {
+            return reader.get();
+        } finally {
+            d[0]--;
+        }
+    }
+
+    @Override
+    public Page readPage(PageId pid) {
+        return reading(Collections.singletonList(pid), () -> super.readPage(pid));
+    }
+
+    @Override
+    public Page readPageInto(PageId pid, ByteBuffer frame) {
+        return reading(Collections.singletonList(pid), () -> super.readPageInto(pid, frame));
+    }
+
+    @Override
+    public List<Page> readPages(List<PageId> pids) {
+        return reading(pids, () -> super.readPages(pids));
+    }
+
+    @Override
+    public List<Page> readPagesInto(List<PageId> pids, ByteBuffer[] frames) {
+        return reading(pids, () -> super.readPagesInto(pids, frames));
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -113,21 +114,6 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
-
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
-            }
-
-            public int readCount = 0;
-        }
-
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -159,6 +145,57 @@ public class ScanTest extends SimpleDbTestBase {
         assertTrue("HeapFile iterator should not read all pages in open()",PAGES != table.readCount);
     }
 
+    /** A scan of a table larger than the pool must not evict its pages. */
+    @Test public void testBulkReadBypassesPool() throws IOException, DbException, TransactionAbortedException {
+        final int POOL_PAGES = 10;
+        Database.resetBufferPool(POOL_PAGES);
+        TupleDesc td = Utility.getTupleDesc(1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        InstrumentedHeapFile small = new InstrumentedHeapFile(
+                SystemTestUtil.createRandomHeapFileUnopened(1, 992 * POOL_PAGES, 1000, null, tuples), td);
+        Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(POOL_PAGES, small.readCount);
+
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        InstrumentedHeapFile big = new InstrumentedHeapFile(
+                SystemTestUtil.createRandomHeapFileUnopened(1, 992 * 3 * POOL_PAGES, 1000, null, bigTuples), td);
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+        assertTrue(Database.getBufferPool().isBulkRead(big.numPages()));
+        SystemTestUtil.matchTuples(big, bigTuples);
+        SystemTestUtil.matchTuples(big, bigTuples);
+        assertEquals(2 * 3 * POOL_PAGES, big.readCount);
+
+        // the small table is still entirely cached
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(POOL_PAGES, small.readCount);
+    }
+
+    /** Scans through a buffer pool whose frames live off-heap. */
+    @Test public void testOffHeapScan() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        final int POOL_PAGES = 4;
+        System.setProperty(BufferPool.OFF_HEAP_PROPERTY, "true");
+        try {
+            Database.resetBufferPool(POOL_PAGES);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+        }
+        assertTrue(Database.getBufferPool().isOffHeap());
+
+        // more pages than frames, so frames get recycled during the scan
+        assertTrue(f.numPages() > POOL_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        assertTrue(Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
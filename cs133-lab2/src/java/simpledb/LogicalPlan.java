@@ -3,6 +3,7 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -271,6 +272,99 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Pick the filter on the key of a B+tree that an {@link IndexScan}
+     * should use: an equality if there is one, else the first range
+     * condition.  Conditions the index cannot bound, such as NOT_EQUALS
+     * and LIKE, are left to the scan.
+     *
+     * @param preds the filters on the table, with fields indexed into its
+     *        TupleDesc
+     * @return the predicate, or null if none of them is on the key
+     */
+    private static Predicate keyPredicate(BTreeFile file, List<Predicate> preds) {
+        Predicate range = null;
+        for (Predicate p : preds) {
+            if (p.getField() != file.keyField()
+                    || p.getOperand().getType() != file.getTupleDesc().getFieldType(file.keyField()))
+                continue;
+            switch (p.getOp()) {
+            case EQUALS:
+                return p;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                if (range == null)
+                    range = p;
+                break;
+            default:
+                break;
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Work out which columns of the table scanned as alias the plan refers
+     * to, in its select list, aggregate, GROUP BY and ORDER BY fields and
+     * joins.  Filters are pushed into the scan and see whole tuples, so
+     * their fields need not be returned.  Names that do not resolve are
+     * left for {@link #physicalPlan} to report.
+     *
+     * @return the columns, as indexes into td, or null if the plan needs
+     *         all of them (e.g. for SELECT *)
+     */
+    private int[] scanColumns(String alias, TupleDesc td) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+
+        boolean[] used = new boolean[td.numFields()];
+        int numUsed = 0;
+        for (String name : names) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts.length != 2)
+                return null;
+            if (parts[1].equals("*") && (parts[0].equals("null") || parts[0].equals(alias)))
+                return null;
+            if (!parts[0].equals(alias))
+                continue;
+            try {
+                int i = td.fieldNameToIndex(parts[1]);
+                if (!used[i]) {
+                    used[i] = true;
+                    numUsed++;
+                }
+            } catch (NoSuchElementException e) {
+                //physicalPlan reports it
+            }
+        }
+        if (numUsed == td.numFields())
+            return null;
+        if (numUsed == 0)
+            return new int[] { 0 };     //e.g. only counted: any one column will do
+        int[] columns = new int[numUsed];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i])
+                columns[j++] = i;
+        }
+        return columns;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -290,16 +384,18 @@ public class LogicalPlan {
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        //每个表的过滤条件 下推到它的SeqScan里 (堆文件按zone map跳过页)
+        HashMap<String,ArrayList<Predicate>> scanPredicates = new HashMap<String,ArrayList<Predicate>>();
+
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 Database.getCatalog().getDatabaseFile(table.t);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
-            subplanMap.put(table.alias,ss);
+
+            scanPredicates.put(table.alias, new ArrayList<Predicate>());
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -309,17 +405,19 @@ public class LogicalPlan {
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
-            DbIterator subplan = subplanMap.get(lf.tableAlias);
-            if (subplan == null) {
+            ArrayList<Predicate> preds = scanPredicates.get(lf.tableAlias);
+            if (preds == null) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
             Field f;
             Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-            
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+            //下推的谓词按表本身的TupleDesc给字段编号
+            TupleDesc td = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldPureName);
+                ftyp = td.getFieldType(field);
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
@@ -328,21 +426,41 @@ public class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
-            }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            preds.add(new Predicate(field, lf.p, f));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel= s.estimateSelectivity(field, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        tableIt = tables.iterator();
+        while (tableIt.hasNext()) {
+            LogicalScanNode table = tableIt.next();
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            ArrayList<Predicate> preds = scanPredicates.get(table.alias);
+            Predicate keyPred = file instanceof BTreeFile ? keyPredicate((BTreeFile) file, preds) : null;
+            if (keyPred != null) {
+                //索引键上有条件 只读这个范围里的叶子 其余条件在上面用Filter检查
+                DbIterator scan;
+                try {
+                    scan = new IndexScan(t, file.getId(), table.alias, keyPred);
+                } catch (DbException e) {
+                    throw new ParsingException(e);
+                }
+                for (Predicate p : preds) {
+                    if (p != keyPred)
+                        scan = new Filter(p, scan);
+                }
+                subplanMap.put(table.alias, scan);
+            } else {
+                //只读查询用到的列 列式存储的表只读这些列的页
+                subplanMap.put(table.alias, new SeqScan(t, file.getId(), table.alias,
+                        scanColumns(table.alias, file.getTupleDesc()), preds.isEmpty() ? null : preds));
+            }
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 